@@ -3,14 +3,20 @@ package com.ldtteam.storageracks;
 import com.ldtteam.storageracks.blocks.ControllerBlock;
 import com.ldtteam.storageracks.blocks.RackBlock;
 import com.ldtteam.storageracks.blocks.UpgradeableBlock;
+import com.ldtteam.storageracks.commands.ModCommands;
+import com.ldtteam.storageracks.tileentities.DirtyQueue;
 import com.ldtteam.storageracks.tileentities.TileEntityRack;
+import com.ldtteam.storageracks.utils.SyncedStackUtils;
 import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.text.TranslationTextComponent;
 import net.minecraft.world.World;
+import net.minecraftforge.event.RegisterCommandsEvent;
+import net.minecraftforge.event.TickEvent;
 import net.minecraftforge.event.entity.player.PlayerInteractEvent;
 import net.minecraftforge.event.world.BlockEvent;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.event.server.FMLServerStoppedEvent;
 
 import java.util.HashSet;
 
@@ -66,4 +72,41 @@ public class EventManager
             }
         }
     }
+
+    /**
+     * Register the commands of the mod.
+     *
+     * @param event the event.
+     */
+    @SubscribeEvent
+    public static void on(final RegisterCommandsEvent event)
+    {
+        ModCommands.register(event.getDispatcher());
+    }
+
+    /**
+     * Flush the changed racks and controllers at the end of the server tick.
+     *
+     * @param event the event.
+     */
+    @SubscribeEvent
+    public static void on(final TickEvent.ServerTickEvent event)
+    {
+        if (event.phase == TickEvent.Phase.END)
+        {
+            DirtyQueue.flush();
+        }
+    }
+
+    /**
+     * Forget changed racks and controllers and the stripped item tags of a stopped server.
+     *
+     * @param event the event.
+     */
+    @SubscribeEvent
+    public static void on(final FMLServerStoppedEvent event)
+    {
+        DirtyQueue.clear();
+        SyncedStackUtils.clear();
+    }
 }
@@ -1,28 +1,47 @@
 package com.ldtteam.storageracks;
 
 import com.ldtteam.storageracks.utils.ItemStackUtils;
+import com.ldtteam.storageracks.utils.SyncedStackUtils;
 import net.minecraft.item.Item;
+import net.minecraft.item.ItemGroup;
 import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.CompoundNBT;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Used to store an stack with various informations to compare items later on.
  */
 public class ItemStorage
 {
+    /**
+     * Cache of the primary creative tab index per item.
+     */
+    private static final Map<Item, Integer> CREATIVE_TAB_CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * Reusable lookup key per thread, see {@link #probe(ItemStack)}.
+     */
+    private static final ThreadLocal<Probe> PROBE = ThreadLocal.withInitial(Probe::new);
+
     /**
      * The stack to store.
      */
     private final ItemStack stack;
 
     /**
-     * The creative tab index of the storage.
+     * The primary creative tab index of the storage.
+     */
+    private final int creativeTabIndex;
+
+    /**
+     * Fingerprint of item, damage and nbt of the stack, computed once.
      */
-    private final List<Integer> creativeTabIndex;
+    private final int hash;
 
     /**
      * Amount of the storage.
@@ -30,15 +49,78 @@ public class ItemStorage
     private int amount;
 
     /**
-     * Creates an instance of the storage.
+     * The stack synced to the clients for display, computed on first use.
+     */
+    @Nullable
+    private ItemStack syncedStack;
+
+    /**
+     * Creates an instance of the storage. The stack must not be modified afterwards, as its fingerprint is computed once.
      *
      * @param stack the stack.
      */
     public ItemStorage(@NotNull final ItemStack stack)
     {
         this.stack = stack;
+        this.hash = hashOf(stack);
         this.amount = ItemStackUtils.getSize(stack);
-        this.creativeTabIndex = stack.getItem().getCreativeTabs().stream().filter(Objects::nonNull).map(g -> g.id).collect(Collectors.toList());
+        this.creativeTabIndex = getCreativeTabIndex(stack.getItem());
+    }
+
+    /**
+     * Get the primary creative tab index of an item. Cached per item.
+     *
+     * @param item the item.
+     * @return the index, or 0 if it is in no tab.
+     */
+    public static int getCreativeTabIndex(@NotNull final Item item)
+    {
+        return CREATIVE_TAB_CACHE.computeIfAbsent(item, ItemStorage::computeCreativeTabIndex);
+    }
+
+    /**
+     * Calculate the primary creative tab index of an item.
+     *
+     * @param item the item.
+     * @return the index, or 0 if it is in no tab.
+     */
+    private static int computeCreativeTabIndex(final Item item)
+    {
+        for (final ItemGroup group : item.getCreativeTabs())
+        {
+            if (group != null)
+            {
+                return group.id;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Get a lookup key for a stack which can be used to query maps keyed by {@link ItemStorage} without allocating. The key is reused per thread, so it must not be stored
+     * and is only valid until the next call.
+     *
+     * @param stack the stack to look up.
+     * @return the lookup key.
+     */
+    public static Object probe(@NotNull final ItemStack stack)
+    {
+        return PROBE.get().set(stack);
+    }
+
+    /**
+     * Calculate the fingerprint an {@link ItemStorage} of a stack would have, based on item, damage and nbt.
+     *
+     * @param stack the stack.
+     * @return the hash.
+     */
+    public static int hashOf(@NotNull final ItemStack stack)
+    {
+        final CompoundNBT tag = stack.getTag();
+        int result = stack.getItem().hashCode();
+        result = 31 * result + stack.getDamageValue();
+        result = 31 * result + (tag == null ? 0 : tag.hashCode());
+        return result;
     }
 
     /**
@@ -51,6 +133,22 @@ public class ItemStorage
         return stack;
     }
 
+    /**
+     * Get the stack synced to the clients for display, see {@link SyncedStackUtils#encode(ItemStack)}. Measuring and hashing a large tag is expensive, so it is only
+     * computed once per storage.
+     *
+     * @return the synced stack, must not be modified.
+     */
+    @NotNull
+    public ItemStack getSyncedStack()
+    {
+        if (syncedStack == null)
+        {
+            syncedStack = SyncedStackUtils.encode(stack);
+        }
+        return syncedStack;
+    }
+
     /**
      * Getter for the quantity.
      *
@@ -78,14 +176,13 @@ public class ItemStorage
      */
     public int getPrimaryCreativeTabIndex()
     {
-        return creativeTabIndex.isEmpty() ? 0 : creativeTabIndex.get(0);
+        return creativeTabIndex;
     }
 
     @Override
     public int hashCode()
     {
-        //Only use the stack itself for the has, equals will handle the broader attributes
-        return Objects.hash(stack.getItem());
+        return hash;
     }
 
     @Override
@@ -101,12 +198,20 @@ public class ItemStorage
         }
 
         final ItemStorage that = (ItemStorage) o;
+        return hash == that.hash && matches(that.getItemStack());
+    }
 
-
-        return stack.sameItem(that.getItemStack())
-                 && that.getDamageValueValue() == this.getDamageValueValue()
-                 && ((that.getItemStack().getTag() == null && this.getItemStack().getTag() == null)
-                       || (that.getItemStack().getTag() != null && that.getItemStack().getTag().equals(this.getItemStack().getTag())));
+    /**
+     * Check if a stack is the same item as this storage, ignoring the count.
+     *
+     * @param other the stack to compare.
+     * @return true if item, damage and nbt match.
+     */
+    public boolean matches(@NotNull final ItemStack other)
+    {
+        return stack.sameItem(other)
+                 && other.getDamageValue() == this.getDamageValueValue()
+                 && Objects.equals(other.getTag(), this.getItemStack().getTag());
     }
 
     /**
@@ -139,4 +244,45 @@ public class ItemStorage
     {
         return ItemStackUtils.isEmpty(stack) || amount <= 0;
     }
+
+    /**
+     * Reusable lookup key which compares equal to any {@link ItemStorage} matching its stack.
+     */
+    private static final class Probe
+    {
+        /**
+         * The stack currently looked up.
+         */
+        private ItemStack stack = ItemStack.EMPTY;
+
+        /**
+         * The fingerprint of the stack.
+         */
+        private int hash;
+
+        /**
+         * Set the stack to look up.
+         *
+         * @param stack the stack.
+         * @return this probe.
+         */
+        private Probe set(final ItemStack stack)
+        {
+            this.stack = stack;
+            this.hash = hashOf(stack);
+            return this;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object o)
+        {
+            return o instanceof ItemStorage && o.hashCode() == hash && ((ItemStorage) o).matches(stack);
+        }
+    }
 }
@@ -2,6 +2,7 @@ package com.ldtteam.storageracks;
 
 import com.ldtteam.storageracks.configuration.Configuration;
 import com.ldtteam.storageracks.network.Network;
+import com.ldtteam.storageracks.utils.ItemTagCache;
 import net.minecraftforge.api.distmarker.Dist;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
@@ -28,6 +29,7 @@ public class StorageRacks
         Mod.EventBusSubscriber.Bus.MOD.bus().get().register(this.getClass());
 
         DistExecutor.unsafeRunWhenOn(Dist.CLIENT, () -> () -> Mod.EventBusSubscriber.Bus.FORGE.bus().get().register(HighlightManager.class));
+        DistExecutor.unsafeRunWhenOn(Dist.CLIENT, () -> () -> Mod.EventBusSubscriber.Bus.FORGE.bus().get().register(ItemTagCache.class));
     }
 
     /**
@@ -0,0 +1,90 @@
+package com.ldtteam.storageracks.commands;
+
+import com.ldtteam.storageracks.tileentities.TileEntityController;
+import com.ldtteam.storageracks.tileentities.TileEntityRack;
+import com.ldtteam.storageracks.utils.Constants;
+import com.mojang.brigadier.CommandDispatcher;
+import net.minecraft.command.CommandSource;
+import net.minecraft.command.Commands;
+import net.minecraft.command.arguments.BlockPosArgument;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.text.TranslationTextComponent;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The commands of the mod.
+ */
+public final class ModCommands
+{
+    /**
+     * Permission level required to run the commands.
+     */
+    private static final int PERMISSION_LEVEL = 2;
+
+    /**
+     * Name of the position argument.
+     */
+    private static final String POS_ARG = "pos";
+
+    /**
+     * Private constructor to hide implicit one.
+     */
+    private ModCommands()
+    {
+        /*
+         * Intentionally left empty.
+         */
+    }
+
+    /**
+     * Register the commands.
+     *
+     * @param dispatcher the command dispatcher.
+     */
+    public static void register(@NotNull final CommandDispatcher<CommandSource> dispatcher)
+    {
+        dispatcher.register(Commands.literal(Constants.MOD_ID)
+                              .requires(source -> source.hasPermission(PERMISSION_LEVEL))
+                              .then(Commands.literal("defrag")
+                                      .then(Commands.argument(POS_ARG, BlockPosArgument.blockPos())
+                                              .executes(context -> defrag(context.getSource(), BlockPosArgument.getLoadedBlockPos(context, POS_ARG))))));
+    }
+
+    /**
+     * Start merging the partial stacks of the network of a controller or rack.
+     *
+     * @param source the source of the command.
+     * @param pos    the position of the controller or of one of its racks.
+     * @return 1 if the defragmentation started, else 0.
+     */
+    private static int defrag(final CommandSource source, final BlockPos pos)
+    {
+        final TileEntity entity = source.getLevel().getBlockEntity(pos);
+        TileEntityController controller = null;
+        if (entity instanceof TileEntityController)
+        {
+            controller = (TileEntityController) entity;
+        }
+        else if (entity instanceof TileEntityRack)
+        {
+            controller = ((TileEntityRack) entity).getController();
+        }
+
+        if (controller == null)
+        {
+            source.sendFailure(new TranslationTextComponent("commands.storageracks.defrag.nocontroller"));
+            return 0;
+        }
+
+        if (controller.isSorting())
+        {
+            source.sendFailure(new TranslationTextComponent("commands.storageracks.defrag.busy"));
+            return 0;
+        }
+
+        controller.startDefrag();
+        source.sendSuccess(new TranslationTextComponent("commands.storageracks.defrag.started"), true);
+        return 1;
+    }
+}
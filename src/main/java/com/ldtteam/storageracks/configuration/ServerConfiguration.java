@@ -16,6 +16,13 @@ public class ServerConfiguration extends AbstractConfiguration
 
     public final ForgeConfigSpec.ConfigValue<List<? extends String>> enabledModTags;
 
+    /*  -------------------------------------------------------------------------------- *
+     *  ------------------- ######## Sorting Settings ######## ------------------- *
+     *  -------------------------------------------------------------------------------- */
+
+    public final ForgeConfigSpec.IntValue sortOperationsPerTick;
+    public final ForgeConfigSpec.IntValue defragThreshold;
+
     /**
      * Builds server configuration.
      *
@@ -186,6 +193,11 @@ public class ServerConfiguration extends AbstractConfiguration
             "forge:string"),
           s -> s instanceof String);
 
+        swapToCategory(builder, "sorting");
+
+        sortOperationsPerTick = defineInteger(builder, "sortoperationspertick", 256, 2, 100000);
+        defragThreshold = defineInteger(builder, "defragthreshold", 10, 0, 100);
+
         finishCategory(builder);
     }
 }
@@ -11,6 +11,7 @@ import com.ldtteam.storageracks.tileentities.TileEntityController;
 import com.ldtteam.storageracks.tileentities.TileEntityRack;
 import com.ldtteam.storageracks.utils.Constants;
 import com.ldtteam.storageracks.utils.InventoryUtils;
+import com.ldtteam.storageracks.utils.ItemTagCache;
 import com.ldtteam.structurize.util.LanguageHandler;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.screen.Screen;
@@ -22,14 +23,11 @@ import net.minecraft.util.Tuple;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.text.StringTextComponent;
 import net.minecraft.util.text.TranslationTextComponent;
-import net.minecraft.world.World;
 import net.minecraftforge.items.wrapper.InvWrapper;
-import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 import static com.ldtteam.storageracks.utils.WindowConstants.*;
 
@@ -53,9 +51,45 @@ public class WindowHutAllInventory extends AbstractWindowSkeleton
     public static final int GREEN = Color.rgbaToInt(85, 255, 255, 255);
 
     /**
-     * List of all item stacks in the warehouse.
+     * Rows of the list fetched from the server at once.
      */
-    List<ItemStorage> allItems = new ArrayList<>();
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * The open window, which receives the pages from the server.
+     */
+    @Nullable
+    private static WindowHutAllInventory openWindow;
+
+    /**
+     * The total amount of rows of the current query.
+     */
+    private int total = 0;
+
+    /**
+     * The content version of the network the fetched rows come from, -1 if none were fetched yet.
+     */
+    private long version = -1;
+
+    /**
+     * The item of each row, null if it was not fetched yet.
+     */
+    private ItemStack[] rowStacks = new ItemStack[0];
+
+    /**
+     * The total amount of each row.
+     */
+    private long[] rowCounts = new long[0];
+
+    /**
+     * The pages requested for the current query.
+     */
+    private final BitSet requestedPages = new BitSet();
+
+    /**
+     * Id of the current query, pages of older queries are dropped.
+     */
+    private int queryId = 0;
 
     /**
      * Resource scrolling list.
@@ -84,6 +118,7 @@ public class WindowHutAllInventory extends AbstractWindowSkeleton
     {
         super(Constants.MOD_ID + HUT_ALL_INVENTORY_SUFFIX);
         this.controller = controller;
+        openWindow = this;
         registerButton(BUTTON_SORT, this::setSortFlag);
         this.stackList = findPaneOfTypeByID(LIST_ALLINVENTORY, ScrollingList.class);
         updateResources();
@@ -91,9 +126,18 @@ public class WindowHutAllInventory extends AbstractWindowSkeleton
         registerButton(SORT, this::sort);
         registerButton(INSERT, this::insert);
 
+        registerButton(SORTED_INSERT, this::toggleSortedInsert);
+
         if (controller.isSortUnlocked())
         {
             findPaneOfTypeByID(SORT, ButtonImage.class).setText(new TranslationTextComponent("gui.storageracks.sort"));
+            final ButtonImage sortedInsert = findPaneOfTypeByID(SORTED_INSERT, ButtonImage.class);
+            sortedInsert.setVisible(true);
+            sortedInsert.setText(new StringTextComponent(controller.isSortedInsert() ? "=" : "~"));
+            PaneBuilders.tooltipBuilder()
+              .hoverPane(sortedInsert)
+              .append(new TranslationTextComponent(controller.isSortedInsert() ? "gui.storageracks.sortedinsert.on" : "gui.storageracks.sortedinsert.off"))
+              .build();
         }
         else
         {
@@ -161,10 +205,23 @@ public class WindowHutAllInventory extends AbstractWindowSkeleton
         close();
     }
 
+    /**
+     * Sends a message to the server side to toggle the sorted insertion.
+     */
+    private void toggleSortedInsert()
+    {
+        Network.getNetwork().sendToServer(new ToggleSortedInsertMessage(this.controller.getBlockPos()));
+        close();
+    }
+
     private void locate(final Button button)
     {
         final int row = stackList.getListElementIndexByPane(button);
-        final ItemStorage storage = allItems.get(row);
+        if (row < 0 || row >= rowStacks.length || rowStacks[row] == null)
+        {
+            return;
+        }
+        final ItemStack stack = rowStacks[row];
         final Set<BlockPos> containerList = new HashSet<>(controller.racks);
         HighlightManager.clearCategory("inventoryHighlight");
 
@@ -176,7 +233,7 @@ public class WindowHutAllInventory extends AbstractWindowSkeleton
             final TileEntity rack = Minecraft.getInstance().level.getBlockEntity(blockPos);
             if (rack instanceof TileEntityRack)
             {
-                int count = ((TileEntityRack) rack).getCount(storage.getItemStack());
+                int count = ((TileEntityRack) rack).getCount(stack);
                 if (count > 0)
                 {
                     // Varies the color between yellow(low count) to green(64+)
@@ -227,86 +284,96 @@ public class WindowHutAllInventory extends AbstractWindowSkeleton
     }
 
     /**
-     * Update the item list.
+     * Start a new query of the item list with the current filter and order. The server filters and sorts, the rows are fetched page by page as the list shows them.
      */
     private void updateResources()
     {
-        final Set<BlockPos> containerList = new HashSet<>(controller.racks);
-
-        final Map<ItemStorage, Integer> storedItems = new HashMap<>();
-        final World level = Minecraft.getInstance().level;
+        queryId++;
+        version = -1;
+        total = 0;
+        rowStacks = new ItemStack[0];
+        rowCounts = new long[0];
+        requestedPages.clear();
+        requestPage(0);
+        updateResourceList();
+    }
 
-        for (final BlockPos blockPos : containerList)
+    /**
+     * Request a page of the current query from the server, unless it was requested already.
+     *
+     * @param page the page.
+     */
+    private void requestPage(final int page)
+    {
+        if (!requestedPages.get(page))
         {
-            final TileEntity rack = level.getBlockEntity(blockPos);
-            if (rack instanceof TileEntityRack)
-            {
-                final Map<ItemStorage, Integer> rackStorage = ((TileEntityRack) rack).getAllContent();
-
-                for (final Map.Entry<ItemStorage, Integer> entry : rackStorage.entrySet())
-                {
-                    if (storedItems.containsKey(entry.getKey()))
-                    {
-                        storedItems.put(entry.getKey(), storedItems.get(entry.getKey()) + entry.getValue());
-                    }
-                    else
-                    {
-                        storedItems.put(entry.getKey(), entry.getValue());
-                    }
-                }
-            }
+            requestedPages.set(page);
+            Network.getNetwork().sendToServer(new QueryInventoryMessage(controller.getBlockPos(), queryId, filter, sortDescriptor, page * PAGE_SIZE, PAGE_SIZE));
         }
+    }
 
-        final List<ItemStorage> filterItems = new ArrayList<>();
-        storedItems.forEach((storage, amount) -> {
-            storage.setAmount(amount);
-            filterItems.add(storage);
-        });
-        final Predicate<ItemStorage> filterPredicate = stack -> filter.isEmpty()
-                                                                  || stack.getItemStack().getDescriptionId().toLowerCase(Locale.US).contains(filter.toLowerCase(Locale.US))
-                                                                  || stack.getItemStack()
-                                                                       .getDisplayName()
-                                                                       .getString()
-                                                                       .toLowerCase(Locale.US)
-                                                                       .contains(filter.toLowerCase(Locale.US));
-
-        allItems.clear();
-        if (filter.isEmpty())
+    /**
+     * Called when a page of the content of a controller network arrives from the server.
+     *
+     * @param pos     the pos of the controller.
+     * @param queryId the id of the query the page answers.
+     * @param version the content version of the network the page was computed from.
+     * @param total   the total amount of rows of the query.
+     * @param offset  the first row of the page.
+     * @param stacks  the item of each row.
+     * @param counts  the total amount of each row.
+     */
+    public static void onPage(final BlockPos pos, final int queryId, final long version, final int total, final int offset, final ItemStack[] stacks, final long[] counts)
+    {
+        if (openWindow != null && openWindow.controller.getBlockPos().equals(pos))
         {
-            allItems.addAll(filterItems);
+            openWindow.receivePage(queryId, version, total, offset, stacks, counts);
         }
-        else
+    }
+
+    /**
+     * Store a page of the current query. If the content version changed since the last page, the other pages are outdated and fetched again.
+     *
+     * @param queryId the id of the query the page answers.
+     * @param version the content version of the network the page was computed from.
+     * @param total   the total amount of rows of the query.
+     * @param offset  the first row of the page.
+     * @param stacks  the item of each row.
+     * @param counts  the total amount of each row.
+     */
+    private void receivePage(final int queryId, final long version, final int total, final int offset, final ItemStack[] stacks, final long[] counts)
+    {
+        if (queryId != this.queryId)
         {
-            allItems.addAll(filterItems.stream().filter(filterPredicate).collect(Collectors.toList()));
+            return;
         }
 
-        if (!filter.isEmpty())
+        if (version != this.version)
         {
-            allItems.sort(Comparator.comparingInt(s1 -> StringUtils.getLevenshteinDistance(s1.getItemStack().getHoverName().getString(), filter)));
+            this.version = version;
+            this.total = total;
+            rowStacks = new ItemStack[total];
+            rowCounts = new long[total];
+            requestedPages.clear();
+            requestedPages.set(offset / PAGE_SIZE);
         }
-        final Comparator<ItemStorage> compareByName = Comparator.comparing((ItemStorage o) -> o.getItemStack().getDisplayName().getString());
-        final Comparator<ItemStorage> compareByCount = Comparator.comparingInt(ItemStorage::getAmount);
-        switch (sortDescriptor)
+
+        for (int i = 0; i < stacks.length && offset + i < total; i++)
         {
-            case NO_SORT:
-                break;
-            case ASC_SORT:
-                allItems.sort(compareByName);
-                break;
-            case DESC_SORT:
-                allItems.sort(compareByName.reversed());
-                break;
-            case COUNT_ASC_SORT:
-                allItems.sort(compareByCount);
-                break;
-            case COUNT_DESC_SORT:
-                allItems.sort(compareByCount.reversed());
-                break;
-            default:
-                break;
+            rowStacks[offset + i] = stacks[i];
+            rowCounts[offset + i] = counts[i];
         }
+        stackList.refreshElementPanes();
+    }
 
-        updateResourceList();
+    @Override
+    public void onClosed()
+    {
+        if (openWindow == this)
+        {
+            openWindow = null;
+        }
+        super.onClosed();
     }
 
     /**
@@ -326,7 +393,7 @@ public class WindowHutAllInventory extends AbstractWindowSkeleton
             @Override
             public int getElementCount()
             {
-                return allItems.size();
+                return total;
             }
 
             /**
@@ -337,23 +404,30 @@ public class WindowHutAllInventory extends AbstractWindowSkeleton
             @Override
             public void updateElement(final int index, @NotNull final Pane rowPane)
             {
-                final ItemStorage resource = allItems.get(index);
                 final Text resourceLabel = rowPane.findPaneOfTypeByID("ressourceStackName", Text.class);
-                final String name = LanguageHandler.format(resource.getItemStack().getDescriptionId());
-                resourceLabel.setText(name.substring(0, Math.min(17, name.length())));
                 final Text qtys = rowPane.findPaneOfTypeByID("quantities", Text.class);
+                final ItemStack resource = index < rowStacks.length ? rowStacks[index] : null;
+                if (resource == null)
+                {
+                    requestPage(index / PAGE_SIZE);
+                    resourceLabel.setText("");
+                    qtys.setText("");
+                    rowPane.findPaneOfTypeByID(RESOURCE_ICON, ItemIcon.class).setItem(ItemStack.EMPTY);
+                    return;
+                }
+
+                final String name = LanguageHandler.format(resource.getDescriptionId());
+                resourceLabel.setText(name.substring(0, Math.min(17, name.length())));
+                final long amount = rowCounts[index];
                 if (!Screen.hasShiftDown())
                 {
-                    qtys.setText(format(resource.getAmount()));
+                    qtys.setText(format(amount));
                 }
                 else
                 {
-                    qtys.setText(Integer.toString(resource.getAmount()));
+                    qtys.setText(Long.toString(amount));
                 }
-                final Item imagesrc = resource.getItemStack().getItem();
-                final ItemStack image = new ItemStack(imagesrc, 1);
-                image.setTag(resource.getItemStack().getTag());
-                rowPane.findPaneOfTypeByID(RESOURCE_ICON, ItemIcon.class).setItem(image);
+                rowPane.findPaneOfTypeByID(RESOURCE_ICON, ItemIcon.class).setItem(ItemTagCache.getDisplayStack(controller.getBlockPos(), resource));
             }
         });
     }
@@ -1,13 +1,18 @@
 package com.ldtteam.storageracks.gui;
 
 import com.ldtteam.storageracks.inv.ContainerRack;
+import com.ldtteam.storageracks.network.Network;
+import com.ldtteam.storageracks.network.SortRackMessage;
 import com.ldtteam.storageracks.utils.Constants;
 import com.mojang.blaze3d.matrix.MatrixStack;
 import com.mojang.blaze3d.systems.RenderSystem;
 import net.minecraft.client.gui.screen.inventory.ContainerScreen;
+import net.minecraft.client.gui.widget.button.Button;
 import net.minecraft.entity.player.PlayerInventory;
 import net.minecraft.util.ResourceLocation;
 import net.minecraft.util.text.ITextComponent;
+import net.minecraft.util.text.StringTextComponent;
+import net.minecraft.util.text.TranslationTextComponent;
 import net.minecraftforge.api.distmarker.Dist;
 import net.minecraftforge.api.distmarker.OnlyIn;
 import org.jetbrains.annotations.NotNull;
@@ -65,6 +70,16 @@ public class WindowRack extends ContainerScreen<ContainerRack>
      */
     private static final int EXTRA_HEIGHT = 50;
 
+    /**
+     * Size of the sort button.
+     */
+    private static final int SORT_BUTTON_SIZE = 12;
+
+    /**
+     * Offset of the sort button from the top right corner.
+     */
+    private static final int SORT_BUTTON_OFFSET = 4;
+
     /**
      * Used to calculate the window height.
      */
@@ -89,6 +104,19 @@ public class WindowRack extends ContainerScreen<ContainerRack>
         }
     }
 
+    @Override
+    protected void init()
+    {
+        super.init();
+        this.addButton(new Button(this.leftPos + this.imageWidth - SORT_BUTTON_SIZE - SORT_BUTTON_OFFSET,
+          this.topPos + SORT_BUTTON_OFFSET,
+          SORT_BUTTON_SIZE,
+          SORT_BUTTON_SIZE,
+          new StringTextComponent("S"),
+          button -> Network.getNetwork().sendToServer(new SortRackMessage(this.menu.rack.getBlockPos())),
+          (button, stack, mouseX, mouseY) -> this.renderTooltip(stack, new TranslationTextComponent("gui.storageracks.sort.rack"), mouseX, mouseY)));
+    }
+
     /**
      * Draw the foreground layer for the GuiContainer (everything in front of the items)
      */
@@ -106,7 +106,7 @@ public class CombinedItemHandler implements IItemHandlerModifiable, INBTSerializ
     @Override
     public void deserializeNBT(final CompoundNBT nbt)
     {
-        final ListNBT handlerList = nbt.getList(NBT_KEY_NAME, Constants.NBT.TAG_COMPOUND);
+        final ListNBT handlerList = nbt.getList(NBT_KEY_HANDLERS, Constants.NBT.TAG_COMPOUND);
         final ListNBT indexList = nbt.getList(NBT_KEY_HANDLERS_INDEXLIST, Constants.NBT.TAG_INT);
 
         if (handlerList.size() == handlers.length)
@@ -0,0 +1,126 @@
+package com.ldtteam.storageracks.network;
+
+import com.ldtteam.storageracks.gui.WindowHutAllInventory;
+import net.minecraft.item.ItemStack;
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraftforge.fml.LogicalSide;
+import net.minecraftforge.fml.network.NetworkEvent;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Sends one page of the sorted content of a controller network to the inventory overview.
+ */
+public class InventoryPageMessage implements IMessage
+{
+    /**
+     * Pos of the controller.
+     */
+    private BlockPos pos;
+
+    /**
+     * Id of the query the page answers.
+     */
+    private int queryId;
+
+    /**
+     * The content version of the network the page was computed from.
+     */
+    private long version;
+
+    /**
+     * The total amount of rows of the query.
+     */
+    private int total;
+
+    /**
+     * The first row of the page.
+     */
+    private int offset;
+
+    /**
+     * The item of each row.
+     */
+    private ItemStack[] stacks;
+
+    /**
+     * The total amount of each row.
+     */
+    private long[] counts;
+
+    /**
+     * Empty constructor used when registering the
+     */
+    public InventoryPageMessage()
+    {
+        super();
+    }
+
+    /**
+     * Create a new message.
+     * @param pos     the pos of the controller.
+     * @param queryId the id of the query the page answers.
+     * @param version the content version of the network the page was computed from.
+     * @param total   the total amount of rows of the query.
+     * @param offset  the first row of the page.
+     * @param stacks  the item of each row.
+     * @param counts  the total amount of each row.
+     */
+    public InventoryPageMessage(final BlockPos pos, final int queryId, final long version, final int total, final int offset, final ItemStack[] stacks, final long[] counts)
+    {
+        this.pos = pos;
+        this.queryId = queryId;
+        this.version = version;
+        this.total = total;
+        this.offset = offset;
+        this.stacks = stacks;
+        this.counts = counts;
+    }
+
+    @Override
+    public void toBytes(final PacketBuffer buf)
+    {
+        buf.writeBlockPos(pos);
+        buf.writeVarInt(queryId);
+        buf.writeVarLong(version);
+        buf.writeVarInt(total);
+        buf.writeVarInt(offset);
+        buf.writeVarInt(stacks.length);
+        for (int i = 0; i < stacks.length; i++)
+        {
+            buf.writeItem(stacks[i]);
+            buf.writeVarLong(counts[i]);
+        }
+    }
+
+    @Override
+    public void fromBytes(final PacketBuffer buf)
+    {
+        this.pos = buf.readBlockPos();
+        this.queryId = buf.readVarInt();
+        this.version = buf.readVarLong();
+        this.total = buf.readVarInt();
+        this.offset = buf.readVarInt();
+        final int size = buf.readVarInt();
+        this.stacks = new ItemStack[size];
+        this.counts = new long[size];
+        for (int i = 0; i < size; i++)
+        {
+            stacks[i] = buf.readItem();
+            counts[i] = buf.readVarLong();
+        }
+    }
+
+    @Nullable
+    @Override
+    public LogicalSide getExecutionSide()
+    {
+        return LogicalSide.CLIENT;
+    }
+
+    @Override
+    public void onExecute(final NetworkEvent.Context ctxIn, final boolean isLogicalServer)
+    {
+        WindowHutAllInventory.onPage(pos, queryId, version, total, offset, stacks, counts);
+    }
+}
@@ -0,0 +1,73 @@
+package com.ldtteam.storageracks.network;
+
+import com.ldtteam.storageracks.utils.ItemTagCache;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.network.PacketBuffer;
+import net.minecraftforge.fml.LogicalSide;
+import net.minecraftforge.fml.network.NetworkEvent;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Sends the full tag of an item whose tag was stripped from the client sync.
+ */
+public class ItemTagMessage implements IMessage
+{
+    /**
+     * The digest of the tag.
+     */
+    private long digest;
+
+    /**
+     * The full tag.
+     */
+    private CompoundNBT tag;
+
+    /**
+     * Empty constructor used when registering the
+     */
+    public ItemTagMessage()
+    {
+        super();
+    }
+
+    /**
+     * Create a new message.
+     * @param digest the digest of the tag.
+     * @param tag    the full tag.
+     */
+    public ItemTagMessage(final long digest, final CompoundNBT tag)
+    {
+        this.digest = digest;
+        this.tag = tag;
+    }
+
+    @Override
+    public void toBytes(final PacketBuffer buf)
+    {
+        buf.writeLong(digest);
+        buf.writeNbt(tag);
+    }
+
+    @Override
+    public void fromBytes(final PacketBuffer buf)
+    {
+        this.digest = buf.readLong();
+        this.tag = buf.readNbt();
+    }
+
+    @Nullable
+    @Override
+    public LogicalSide getExecutionSide()
+    {
+        return LogicalSide.CLIENT;
+    }
+
+    @Override
+    public void onExecute(final NetworkEvent.Context ctxIn, final boolean isLogicalServer)
+    {
+        if (tag != null)
+        {
+            ItemTagCache.put(digest, tag);
+        }
+    }
+}
@@ -48,6 +48,12 @@ public class NetworkChannel
         registerMessage(++idx, UnlockSortMessage.class, UnlockSortMessage::new);
         registerMessage(++idx, UnlockInsertMessage.class, UnlockInsertMessage::new);
         registerMessage(++idx, OpenInventoryMessage.class, OpenInventoryMessage::new);
+        registerMessage(++idx, ToggleSortedInsertMessage.class, ToggleSortedInsertMessage::new);
+        registerMessage(++idx, SortRackMessage.class, SortRackMessage::new);
+        registerMessage(++idx, RequestItemTagMessage.class, RequestItemTagMessage::new);
+        registerMessage(++idx, ItemTagMessage.class, ItemTagMessage::new);
+        registerMessage(++idx, QueryInventoryMessage.class, QueryInventoryMessage::new);
+        registerMessage(++idx, InventoryPageMessage.class, InventoryPageMessage::new);
     }
 
     /**
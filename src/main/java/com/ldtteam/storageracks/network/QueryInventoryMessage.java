@@ -0,0 +1,155 @@
+package com.ldtteam.storageracks.network;
+
+import com.ldtteam.storageracks.ItemStorage;
+import com.ldtteam.storageracks.tileentities.TileEntityController;
+import com.ldtteam.storageracks.utils.InventoryQuery;
+import com.ldtteam.storageracks.utils.SyncedStackUtils;
+import com.ldtteam.storageracks.utils.WorldUtil;
+import net.minecraft.entity.player.ServerPlayerEntity;
+import net.minecraft.item.ItemStack;
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.vector.Vector3d;
+import net.minecraftforge.fml.LogicalSide;
+import net.minecraftforge.fml.network.NetworkEvent;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * Asks the server for one page of the filtered and sorted content of a controller network.
+ */
+public class QueryInventoryMessage implements IMessage
+{
+    /**
+     * Max squared distance of the player to the controller.
+     */
+    private static final double MAX_DISTANCE_SQ = 128 * 128;
+
+    /**
+     * Max amount of rows of a page.
+     */
+    private static final int MAX_PAGE_SIZE = 100;
+
+    /**
+     * Max length of the filter.
+     */
+    private static final int MAX_FILTER_LENGTH = 256;
+
+    /**
+     * Pos of the controller.
+     */
+    private BlockPos pos;
+
+    /**
+     * Id of the query, sent back with the page.
+     */
+    private int queryId;
+
+    /**
+     * The filter on the name.
+     */
+    private String filter;
+
+    /**
+     * The order of the rows.
+     */
+    private int sortDescriptor;
+
+    /**
+     * The first row of the page.
+     */
+    private int offset;
+
+    /**
+     * The amount of rows of the page.
+     */
+    private int limit;
+
+    /**
+     * Empty constructor used when registering the
+     */
+    public QueryInventoryMessage()
+    {
+        super();
+    }
+
+    /**
+     * Create a new message.
+     * @param pos            the pos of the controller.
+     * @param queryId        the id of the query.
+     * @param filter         the filter on the name, empty for all items.
+     * @param sortDescriptor the order of the rows.
+     * @param offset         the first row of the page.
+     * @param limit          the amount of rows of the page.
+     */
+    public QueryInventoryMessage(final BlockPos pos, final int queryId, final String filter, final int sortDescriptor, final int offset, final int limit)
+    {
+        this.pos = pos;
+        this.queryId = queryId;
+        this.filter = filter.length() > MAX_FILTER_LENGTH ? filter.substring(0, MAX_FILTER_LENGTH) : filter;
+        this.sortDescriptor = sortDescriptor;
+        this.offset = offset;
+        this.limit = limit;
+    }
+
+    @Override
+    public void toBytes(final PacketBuffer buf)
+    {
+        buf.writeBlockPos(pos);
+        buf.writeVarInt(queryId);
+        buf.writeUtf(filter, MAX_FILTER_LENGTH);
+        buf.writeVarInt(sortDescriptor);
+        buf.writeVarInt(offset);
+        buf.writeVarInt(limit);
+    }
+
+    @Override
+    public void fromBytes(final PacketBuffer buf)
+    {
+        this.pos = buf.readBlockPos();
+        this.queryId = buf.readVarInt();
+        this.filter = buf.readUtf(MAX_FILTER_LENGTH);
+        this.sortDescriptor = buf.readVarInt();
+        this.offset = buf.readVarInt();
+        this.limit = buf.readVarInt();
+    }
+
+    @Nullable
+    @Override
+    public LogicalSide getExecutionSide()
+    {
+        return LogicalSide.SERVER;
+    }
+
+    @Override
+    public void onExecute(final NetworkEvent.Context ctxIn, final boolean isLogicalServer)
+    {
+        final ServerPlayerEntity playerEntity = ctxIn.getSender();
+        if (playerEntity.distanceToSqr(Vector3d.atCenterOf(pos)) > MAX_DISTANCE_SQ || !WorldUtil.isBlockLoaded(playerEntity.level, pos))
+        {
+            return;
+        }
+
+        final TileEntity entity = playerEntity.level.getBlockEntity(pos);
+        if (!(entity instanceof TileEntityController))
+        {
+            return;
+        }
+
+        final InventoryQuery.Result result = ((TileEntityController) entity).queryContent(playerEntity.getUUID(), queryId, filter, sortDescriptor);
+        final List<ItemStorage> rows = result.getRows();
+        final int start = Math.max(0, Math.min(offset, rows.size()));
+        final int end = Math.min(rows.size(), start + Math.max(0, Math.min(limit, MAX_PAGE_SIZE)));
+
+        final ItemStack[] stacks = new ItemStack[end - start];
+        final long[] counts = new long[end - start];
+        for (int i = start; i < end; i++)
+        {
+            stacks[i - start] = SyncedStackUtils.toClient(rows.get(i));
+            counts[i - start] = result.getCount(rows.get(i));
+        }
+        Network.getNetwork().sendToPlayer(new InventoryPageMessage(pos, queryId, result.getVersion(), rows.size(), start, stacks, counts), playerEntity);
+    }
+}
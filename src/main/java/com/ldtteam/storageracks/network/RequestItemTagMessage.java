@@ -0,0 +1,122 @@
+package com.ldtteam.storageracks.network;
+
+import com.ldtteam.storageracks.ItemStorage;
+import com.ldtteam.storageracks.tileentities.TileEntityController;
+import com.ldtteam.storageracks.tileentities.TileEntityRack;
+import com.ldtteam.storageracks.utils.SyncedStackUtils;
+import com.ldtteam.storageracks.utils.WorldUtil;
+import net.minecraft.entity.player.ServerPlayerEntity;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.vector.Vector3d;
+import net.minecraftforge.fml.LogicalSide;
+import net.minecraftforge.fml.network.NetworkEvent;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Asks the server for the full tag of an item whose tag was stripped from the client sync.
+ */
+public class RequestItemTagMessage implements IMessage
+{
+    /**
+     * Max squared distance of the player to the block the tag is requested from.
+     */
+    private static final double MAX_DISTANCE_SQ = 128 * 128;
+
+    /**
+     * Pos of the rack or controller holding the item.
+     */
+    private BlockPos pos;
+
+    /**
+     * The digest of the tag.
+     */
+    private long digest;
+
+    /**
+     * Empty constructor used when registering the
+     */
+    public RequestItemTagMessage()
+    {
+        super();
+    }
+
+    /**
+     * Create a new message.
+     * @param pos    the pos of the rack or controller holding the item.
+     * @param digest the digest of the tag.
+     */
+    public RequestItemTagMessage(final BlockPos pos, final long digest)
+    {
+        this.pos = pos;
+        this.digest = digest;
+    }
+
+    @Override
+    public void toBytes(final PacketBuffer buf)
+    {
+        buf.writeBlockPos(pos);
+        buf.writeLong(digest);
+    }
+
+    @Override
+    public void fromBytes(final PacketBuffer buf)
+    {
+        this.pos = buf.readBlockPos();
+        this.digest = buf.readLong();
+    }
+
+    @Nullable
+    @Override
+    public LogicalSide getExecutionSide()
+    {
+        return LogicalSide.SERVER;
+    }
+
+    @Override
+    public void onExecute(final NetworkEvent.Context ctxIn, final boolean isLogicalServer)
+    {
+        final ServerPlayerEntity playerEntity = ctxIn.getSender();
+        if (playerEntity.distanceToSqr(Vector3d.atCenterOf(pos)) > MAX_DISTANCE_SQ || !WorldUtil.isBlockLoaded(playerEntity.level, pos))
+        {
+            return;
+        }
+
+        final ItemStorage key = SyncedStackUtils.getStripped(digest);
+        if (key == null)
+        {
+            return;
+        }
+
+        // Only hand out tags of items the player can see at the block.
+        boolean found = false;
+        final TileEntity entity = playerEntity.level.getBlockEntity(pos);
+        if (entity instanceof TileEntityRack)
+        {
+            found = ((TileEntityRack) entity).getAllContent().get(key) > 0;
+        }
+        else if (entity instanceof TileEntityController)
+        {
+            for (final BlockPos rackPos : ((TileEntityController) entity).racks)
+            {
+                if (WorldUtil.isBlockLoaded(playerEntity.level, rackPos))
+                {
+                    final TileEntity rack = playerEntity.level.getBlockEntity(rackPos);
+                    if (rack instanceof TileEntityRack && ((TileEntityRack) rack).getAllContent().get(key) > 0)
+                    {
+                        found = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        final CompoundNBT tag = found ? key.getItem().getShareTag(key.getItemStack()) : null;
+        if (tag != null)
+        {
+            Network.getNetwork().sendToPlayer(new ItemTagMessage(digest, tag), playerEntity);
+        }
+    }
+}
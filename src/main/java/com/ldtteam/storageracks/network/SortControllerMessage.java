@@ -1,24 +1,17 @@
 package com.ldtteam.storageracks.network;
 
-import com.ldtteam.storageracks.tileentities.AbstractTileEntityRack;
-import com.ldtteam.storageracks.inv.CombinedItemHandler;
 import com.ldtteam.storageracks.tileentities.TileEntityController;
-import com.ldtteam.storageracks.utils.SortingUtils;
 import com.ldtteam.storageracks.utils.SoundUtils;
-import com.ldtteam.storageracks.utils.WorldUtil;
+import net.minecraft.entity.player.ServerPlayerEntity;
 import net.minecraft.network.PacketBuffer;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.text.TranslationTextComponent;
 import net.minecraft.world.World;
 import net.minecraftforge.fml.LogicalSide;
 import net.minecraftforge.fml.network.NetworkEvent;
-import net.minecraftforge.items.CapabilityItemHandler;
-import net.minecraftforge.items.IItemHandlerModifiable;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.LinkedHashSet;
-import java.util.Set;
-
 /**
  * Sorts the racks connected to the controller.
  */
@@ -70,21 +63,16 @@ public class SortControllerMessage implements IMessage
         final TileEntity tileEntity = world.getBlockEntity(controllerPos);
         if (tileEntity instanceof TileEntityController && ((TileEntityController) tileEntity).isSortUnlocked())
         {
-            final Set<IItemHandlerModifiable> handlers = new LinkedHashSet<>();
-
-            for (final BlockPos pos : ((TileEntityController) tileEntity).racks)
+            final ServerPlayerEntity player = context.getSender();
+            if (((TileEntityController) tileEntity).startSort())
+            {
+                SoundUtils.playSuccessSound(player, controllerPos);
+            }
+            else
             {
-                if (WorldUtil.isBlockLoaded(world, pos))
-                {
-                    final TileEntity te = world.getBlockEntity(pos);
-                    if (te instanceof AbstractTileEntityRack)
-                    {
-                        handlers.add((IItemHandlerModifiable) te.getCapability(CapabilityItemHandler.ITEM_HANDLER_CAPABILITY, null).resolve().get());
-                    }
-                }
+                player.sendMessage(new TranslationTextComponent("gui.storageracks.sort.busy"), player.getUUID());
+                SoundUtils.playErrorSound(player, controllerPos);
             }
-            SortingUtils.sort(new CombinedItemHandler("controller", handlers.toArray(new IItemHandlerModifiable[0])));
-            SoundUtils.playSuccessSound(context.getSender(), controllerPos);
         }
     }
 }
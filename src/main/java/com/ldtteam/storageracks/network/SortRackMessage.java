@@ -0,0 +1,101 @@
+package com.ldtteam.storageracks.network;
+
+import com.ldtteam.storageracks.inv.CombinedItemHandler;
+import com.ldtteam.storageracks.inv.ContainerRack;
+import com.ldtteam.storageracks.tileentities.BulkMutationSession;
+import com.ldtteam.storageracks.tileentities.TileEntityController;
+import com.ldtteam.storageracks.tileentities.TileEntityRack;
+import com.ldtteam.storageracks.utils.SortingUtils;
+import com.ldtteam.storageracks.utils.SoundUtils;
+import net.minecraft.entity.player.ServerPlayerEntity;
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.text.TranslationTextComponent;
+import net.minecraftforge.fml.LogicalSide;
+import net.minecraftforge.fml.network.NetworkEvent;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+
+/**
+ * Sorts a single rack from its inventory window.
+ */
+public class SortRackMessage implements IMessage
+{
+    /**
+     * Pos of the rack.
+     */
+    private BlockPos pos;
+
+    /**
+     * Empty constructor used when registering the
+     */
+    public SortRackMessage()
+    {
+        super();
+    }
+
+    /**
+     * Create a new message.
+     * @param pos the pos of the rack.
+     */
+    public SortRackMessage(final BlockPos pos)
+    {
+        this.pos = pos;
+    }
+
+    @Override
+    public void toBytes(final PacketBuffer buf)
+    {
+        buf.writeBlockPos(pos);
+    }
+
+    @Override
+    public void fromBytes(final PacketBuffer buf)
+    {
+        this.pos = buf.readBlockPos();
+    }
+
+    @Nullable
+    @Override
+    public LogicalSide getExecutionSide()
+    {
+        return LogicalSide.SERVER;
+    }
+
+    @Override
+    public void onExecute(final NetworkEvent.Context ctxIn, final boolean isLogicalServer)
+    {
+        final ServerPlayerEntity playerEntity = ctxIn.getSender();
+        if (!(playerEntity.containerMenu instanceof ContainerRack) || !((ContainerRack) playerEntity.containerMenu).rack.getBlockPos().equals(pos))
+        {
+            return;
+        }
+
+        if (((ContainerRack) playerEntity.containerMenu).rack instanceof TileEntityRack)
+        {
+            final TileEntityRack rack = (TileEntityRack) ((ContainerRack) playerEntity.containerMenu).rack;
+            final TileEntityController controller = rack.getController();
+            if (controller == null || !controller.isSortUnlocked())
+            {
+                playerEntity.sendMessage(new TranslationTextComponent("gui.storageracks.sort.locked"), playerEntity.getUUID());
+                SoundUtils.playErrorSound(playerEntity, pos);
+                return;
+            }
+
+            if (controller.isSorting())
+            {
+                // The network sort would overwrite the rack, or plan again for every change.
+                playerEntity.sendMessage(new TranslationTextComponent("gui.storageracks.sort.busy"), playerEntity.getUUID());
+                SoundUtils.playErrorSound(playerEntity, pos);
+                return;
+            }
+
+            try (BulkMutationSession session = new BulkMutationSession(Collections.singletonList(rack)))
+            {
+                SortingUtils.sort(new CombinedItemHandler("rack", rack.getInventory()));
+            }
+            SoundUtils.playSuccessSound(playerEntity, pos);
+        }
+    }
+}
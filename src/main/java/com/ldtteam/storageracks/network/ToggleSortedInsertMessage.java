@@ -0,0 +1,70 @@
+package com.ldtteam.storageracks.network;
+
+import com.ldtteam.storageracks.tileentities.TileEntityController;
+import com.ldtteam.storageracks.utils.SoundUtils;
+import net.minecraft.entity.player.ServerPlayerEntity;
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraftforge.fml.LogicalSide;
+import net.minecraftforge.fml.network.NetworkEvent;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Toggle if the controller inserts stacks keeping its racks sorted.
+ */
+public class ToggleSortedInsertMessage implements IMessage
+{
+    /**
+     * Pos of the controller.
+     */
+    private BlockPos pos;
+
+    /**
+     * Empty constructor used when registering the
+     */
+    public ToggleSortedInsertMessage()
+    {
+        super();
+    }
+
+    /**
+     * Create a new message.
+     * @param pos the pos of the controller.
+     */
+    public ToggleSortedInsertMessage(final BlockPos pos)
+    {
+        this.pos = pos;
+    }
+
+    @Override
+    public void toBytes(final PacketBuffer buf)
+    {
+        buf.writeBlockPos(pos);
+    }
+
+    @Override
+    public void fromBytes(final PacketBuffer buf)
+    {
+        this.pos = buf.readBlockPos();
+    }
+
+    @Nullable
+    @Override
+    public LogicalSide getExecutionSide()
+    {
+        return LogicalSide.SERVER;
+    }
+
+    @Override
+    public void onExecute(final NetworkEvent.Context ctxIn, final boolean isLogicalServer)
+    {
+        final ServerPlayerEntity playerEntity = ctxIn.getSender();
+        final TileEntity te = playerEntity.getCommandSenderWorld().getBlockEntity(pos);
+        if (te instanceof TileEntityController && ((TileEntityController) te).isSortUnlocked())
+        {
+            ((TileEntityController) te).toggleSortedInsert();
+            SoundUtils.playSuccessSound(playerEntity, pos);
+        }
+    }
+}
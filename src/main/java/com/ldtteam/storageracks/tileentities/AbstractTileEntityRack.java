@@ -1,5 +1,7 @@
 package com.ldtteam.storageracks.tileentities;
 
+import com.ldtteam.storageracks.ItemStorage;
+import com.ldtteam.storageracks.utils.ItemStackUtils;
 import net.minecraft.inventory.container.INamedContainerProvider;
 import net.minecraft.item.ItemStack;
 import net.minecraft.tileentity.TileEntity;
@@ -8,8 +10,14 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraftforge.items.IItemHandlerModifiable;
 import net.minecraftforge.items.ItemStackHandler;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import javax.annotation.Nonnull;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Predicate;
 
 import static com.ldtteam.storageracks.utils.Constants.DEFAULT_SIZE;
@@ -37,15 +45,49 @@ public abstract class AbstractTileEntityRack extends TileEntity implements IName
      */
     public class RackInventory extends ItemStackHandler
     {
+        /**
+         * The item key accounted in the content for each slot.
+         */
+        private final ItemStorage[] slotKeys;
+
+        /**
+         * The quantity accounted in the content for each slot.
+         */
+        private final int[] slotCounts;
+
+        /**
+         * Amount of free slots.
+         */
+        private int freeSlots;
+
+        /**
+         * The empty slots.
+         */
+        private final BitSet freeSlotSet;
+
+        /**
+         * The partially filled slots of each item key.
+         */
+        private final Map<ItemStorage, BitSet> partialSlots = new HashMap<>();
+
         public RackInventory(final int defaultSize)
         {
             super(defaultSize);
+            this.slotKeys = new ItemStorage[defaultSize];
+            this.slotCounts = new int[defaultSize];
+            this.freeSlots = defaultSize;
+            this.freeSlotSet = new BitSet(defaultSize);
+            this.freeSlotSet.set(0, defaultSize);
         }
 
         @Override
         protected void onContentsChanged(final int slot)
         {
-            updateItemStorage();
+            final boolean wasEmpty = isEmpty();
+            if (updateSlot(slot))
+            {
+                onContentChanged(wasEmpty);
+            }
             super.onContentsChanged(slot);
         }
 
@@ -53,12 +95,239 @@ public abstract class AbstractTileEntityRack extends TileEntity implements IName
         public void setStackInSlot(final int slot, final @Nonnull ItemStack stack)
         {
             validateSlotIndex(slot);
-            final boolean changed = !ItemStack.isSame(stack, this.stacks.get(slot));
             this.stacks.set(slot, stack);
-            if (changed)
+            onContentsChanged(slot);
+        }
+
+        /**
+         * Set the stack in a slot and account it in the content, without notifying about the change. Used while (re)loading the inventory.
+         *
+         * @param slot  the slot.
+         * @param stack the stack to set.
+         */
+        public void loadStackInSlot(final int slot, final @Nonnull ItemStack stack)
+        {
+            validateSlotIndex(slot);
+            this.stacks.set(slot, stack);
+            updateSlot(slot);
+        }
+
+        /**
+         * Apply the difference between the accounted and the current stack of a slot to the content of the rack.
+         *
+         * @param slot the slot to update.
+         * @return true if the accounted content changed.
+         */
+        public boolean updateSlot(final int slot)
+        {
+            final ItemStack stack = this.stacks.get(slot);
+            final ItemStorage oldKey = slotKeys[slot];
+            final int oldCount = slotCounts[slot];
+            final int newCount = ItemStackUtils.getSize(stack);
+
+            if (oldKey != null && newCount > 0 && oldKey.matches(stack))
             {
-                onContentsChanged(slot);
+                if (oldCount == newCount)
+                {
+                    return false;
+                }
+                slotCounts[slot] = newCount;
+                setPartial(oldKey, slot, newCount < getStackLimit(slot, stack));
+                updateContent(oldKey, newCount - oldCount);
+                return true;
             }
+
+            if (oldKey == null && newCount <= 0)
+            {
+                return false;
+            }
+
+            if (oldKey != null)
+            {
+                slotKeys[slot] = null;
+                slotCounts[slot] = 0;
+                freeSlots++;
+                freeSlotSet.set(slot);
+                setPartial(oldKey, slot, false);
+                updateContent(oldKey, -oldCount);
+                if (newCount <= 0)
+                {
+                    onSlotFreed();
+                }
+            }
+
+            if (newCount > 0)
+            {
+                final ItemStorage newKey = new ItemStorage(stack.copy());
+                slotKeys[slot] = newKey;
+                slotCounts[slot] = newCount;
+                freeSlots--;
+                freeSlotSet.clear(slot);
+                setPartial(newKey, slot, newCount < getStackLimit(slot, stack));
+                updateContent(newKey, newCount);
+            }
+            onSlotKeyChanged(slot, oldKey, slotKeys[slot]);
+            return true;
+        }
+
+        /**
+         * Update if a slot is registered as partially filled slot of an item key.
+         *
+         * @param key     the item key.
+         * @param slot    the slot.
+         * @param partial true if the slot is partially filled.
+         */
+        private void setPartial(final ItemStorage key, final int slot, final boolean partial)
+        {
+            if (partial)
+            {
+                partialSlots.computeIfAbsent(key, k -> new BitSet()).set(slot);
+                return;
+            }
+
+            final BitSet slots = partialSlots.get(key);
+            if (slots != null)
+            {
+                slots.clear(slot);
+                if (slots.isEmpty())
+                {
+                    partialSlots.remove(key);
+                }
+            }
+        }
+
+        /**
+         * Get how many items of a stack fit into this inventory, from the free slots and the headroom of partially filled slots of the same item.
+         *
+         * @param stack the stack to check.
+         * @return the amount of items that fit.
+         */
+        public int getFreeCapacity(@Nonnull final ItemStack stack)
+        {
+            if (stack.isEmpty() || getSlots() == 0)
+            {
+                return 0;
+            }
+
+            int capacity = freeSlots * getStackLimit(0, stack);
+            final BitSet partial = partialSlots.get(ItemStorage.probe(stack));
+            if (partial != null)
+            {
+                for (int slot = partial.nextSetBit(0); slot >= 0; slot = partial.nextSetBit(slot + 1))
+                {
+                    capacity += getStackLimit(slot, stack) - slotCounts[slot];
+                }
+            }
+            return capacity;
+        }
+
+        /**
+         * Insert a stack into the best slots, first into partially filled slots of the same item, then into free slots.
+         *
+         * @param stack    the stack to insert, is not modified.
+         * @param simulate if the insertion is only simulated.
+         * @return the remainder that did not fit.
+         */
+        @Nonnull
+        public ItemStack insertItemStack(@Nonnull final ItemStack stack, final boolean simulate)
+        {
+            if (stack.isEmpty())
+            {
+                return stack;
+            }
+
+            ItemStack remaining = insertIntoPartialSlots(stack, simulate);
+            for (int slot = freeSlotSet.nextSetBit(0); slot >= 0 && !remaining.isEmpty(); slot = freeSlotSet.nextSetBit(slot + 1))
+            {
+                remaining = insertItem(slot, remaining, simulate);
+            }
+            return remaining;
+        }
+
+        /**
+         * Insert a stack only into partially filled slots of the same item.
+         *
+         * @param stack    the stack to insert, is not modified.
+         * @param simulate if the insertion is only simulated.
+         * @return the remainder that did not fit.
+         */
+        @Nonnull
+        public ItemStack insertIntoPartialSlots(@Nonnull final ItemStack stack, final boolean simulate)
+        {
+            if (stack.isEmpty())
+            {
+                return stack;
+            }
+
+            ItemStack remaining = stack;
+            final BitSet partial = partialSlots.get(ItemStorage.probe(stack));
+            if (partial != null)
+            {
+                for (int slot = partial.nextSetBit(0); slot >= 0 && !remaining.isEmpty(); slot = partial.nextSetBit(slot + 1))
+                {
+                    remaining = insertItem(slot, remaining, simulate);
+                }
+            }
+            return remaining;
+        }
+
+        /**
+         * Get the first free slot at or after a slot.
+         *
+         * @param from the slot to start at.
+         * @return the free slot, or -1 if none.
+         */
+        public int getNextFreeSlot(final int from)
+        {
+            return freeSlotSet.nextSetBit(from);
+        }
+
+        /**
+         * Check if an item has partially filled stacks in more than one slot, which could be merged.
+         *
+         * @return true if so.
+         */
+        public boolean hasMergeablePartials()
+        {
+            for (final BitSet slots : partialSlots.values())
+            {
+                if (slots.cardinality() > 1)
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Get the item keys with partially filled slots.
+         *
+         * @return an unmodifiable view of the keys.
+         */
+        public Set<ItemStorage> getPartialKeys()
+        {
+            return Collections.unmodifiableSet(partialSlots.keySet());
+        }
+
+        /**
+         * Get the last free slot at or before a slot.
+         *
+         * @param from the slot to start at.
+         * @return the free slot, or -1 if none.
+         */
+        public int getPreviousFreeSlot(final int from)
+        {
+            return freeSlotSet.previousSetBit(from);
+        }
+
+        /**
+         * Get the amount of free slots.
+         *
+         * @return the amount.
+         */
+        public int getFreeSlots()
+        {
+            return freeSlots;
         }
     }
 
@@ -125,6 +394,35 @@ public abstract class AbstractTileEntityRack extends TileEntity implements IName
      */
     public abstract void updateItemStorage();
 
+    /**
+     * Apply a change in quantity of an item in one of the slots to the content of the rack.
+     *
+     * @param key   the item key.
+     * @param delta the change in quantity.
+     */
+    protected abstract void updateContent(final ItemStorage key, final int delta);
+
+    /**
+     * Called when a slot of the rack became free.
+     */
+    protected abstract void onSlotFreed();
+
+    /**
+     * Called when the item held by a slot of the rack changed.
+     *
+     * @param slot   the slot.
+     * @param oldKey the item key the slot held before, null if it was empty.
+     * @param newKey the item key the slot holds now, null if it is empty.
+     */
+    protected abstract void onSlotKeyChanged(final int slot, @Nullable final ItemStorage oldKey, @Nullable final ItemStorage newKey);
+
+    /**
+     * Called after the content of the rack changed.
+     *
+     * @param wasEmpty if the rack was empty before the change.
+     */
+    protected abstract void onContentChanged(final boolean wasEmpty);
+
     /**
      * Update the blockState of the rack. Switch between connected, single, full and empty texture.
      */
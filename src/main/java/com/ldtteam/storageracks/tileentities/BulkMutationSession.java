@@ -0,0 +1,45 @@
+package com.ldtteam.storageracks.tileentities;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Session over a set of racks which are mutated in bulk, like during a sort. While the session is open the racks defer their block state updates and syncs, closing it
+ * commits each changed rack once.
+ */
+public class BulkMutationSession implements AutoCloseable
+{
+    /**
+     * The racks of the session.
+     */
+    private final List<TileEntityRack> racks;
+
+    /**
+     * Open a new session, beginning a batch on every rack.
+     *
+     * @param racks the racks that will be mutated.
+     */
+    public BulkMutationSession(@NotNull final Collection<TileEntityRack> racks)
+    {
+        this.racks = new ArrayList<>(racks);
+        for (final TileEntityRack rack : this.racks)
+        {
+            rack.beginBatch();
+        }
+    }
+
+    /**
+     * Commit the session, ending the batch on every rack.
+     */
+    @Override
+    public void close()
+    {
+        for (final TileEntityRack rack : racks)
+        {
+            rack.endBatch();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.ldtteam.storageracks.tileentities;
+
+import com.ldtteam.storageracks.utils.WorldUtil;
+import net.minecraft.tileentity.TileEntity;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Block entities changed during the current server tick. They are marked dirty and synced once at the end of the tick, however often they changed. Racks send a
+ * summary of their content, the players viewing them get the slots from the container sync.
+ */
+public final class DirtyQueue
+{
+    /**
+     * The changed block entities, in order.
+     */
+    private static final Set<TileEntity> QUEUE = new LinkedHashSet<>();
+
+    /**
+     * Private constructor to hide implicit one.
+     */
+    private DirtyQueue()
+    {
+        /*
+         * Intentionally left empty.
+         */
+    }
+
+    /**
+     * Mark a block entity changed. On the server the chunk dirty mark and the sync are deferred to the end of the tick, on the client they happen right away.
+     *
+     * @param entity the block entity.
+     */
+    public static void markDirty(@NotNull final TileEntity entity)
+    {
+        if (entity.getLevel() == null)
+        {
+            return;
+        }
+
+        if (entity.getLevel().isClientSide)
+        {
+            WorldUtil.markChunkDirty(entity.getLevel(), entity.getBlockPos());
+        }
+        else
+        {
+            QUEUE.add(entity);
+        }
+    }
+
+    /**
+     * Mark the chunks of all changed block entities dirty and sync them.
+     */
+    public static void flush()
+    {
+        if (QUEUE.isEmpty())
+        {
+            return;
+        }
+
+        // Copy first so block entities changed while flushing are kept for the next tick.
+        final List<TileEntity> entities = new ArrayList<>(QUEUE);
+        QUEUE.clear();
+        for (final TileEntity entity : entities)
+        {
+            if (entity.isRemoved() || entity.getLevel() == null)
+            {
+                continue;
+            }
+
+            if (entity instanceof TileEntityRack)
+            {
+                ((TileEntityRack) entity).syncChanges();
+            }
+            else
+            {
+                WorldUtil.markChunkDirty(entity.getLevel(), entity.getBlockPos());
+            }
+        }
+    }
+
+    /**
+     * Forget all changed block entities, used when the server stops.
+     */
+    public static void clear()
+    {
+        QUEUE.clear();
+    }
+}
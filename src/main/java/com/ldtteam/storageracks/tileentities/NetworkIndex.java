@@ -0,0 +1,116 @@
+package com.ldtteam.storageracks.tileentities;
+
+import com.ldtteam.storageracks.ItemStorage;
+import com.ldtteam.storageracks.utils.CountMap;
+import net.minecraft.item.ItemStack;
+import net.minecraft.util.math.BlockPos;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Index of the racks of a controller network, mapping item keys and creative tabs to the racks holding them.
+ */
+public class NetworkIndex
+{
+    /**
+     * Shared empty result.
+     */
+    private static final CountMap<BlockPos> EMPTY = new CountMap<>();
+
+    /**
+     * Map of item key to the racks holding it, with the count per rack.
+     */
+    private final Map<ItemStorage, CountMap<BlockPos>> itemToRacks = new HashMap<>();
+
+    /**
+     * Map of primary creative tab to the racks holding items of it, with the count per rack.
+     */
+    private final Map<Integer, CountMap<BlockPos>> tabToRacks = new HashMap<>();
+
+    /**
+     * Apply a content change of a rack to the index.
+     *
+     * @param rack  the pos of the rack.
+     * @param key   the item key that changed.
+     * @param delta the change in quantity.
+     */
+    public void update(@NotNull final BlockPos rack, @NotNull final ItemStorage key, final long delta)
+    {
+        if (delta == 0)
+        {
+            return;
+        }
+
+        CountMap<BlockPos> racks = itemToRacks.get(key);
+        if (racks == null)
+        {
+            if (delta < 0)
+            {
+                return;
+            }
+            racks = new CountMap<>();
+            itemToRacks.put(key, racks);
+        }
+        racks.addTo(rack, delta);
+        if (racks.isEmpty())
+        {
+            itemToRacks.remove(key);
+        }
+
+        final int tab = key.getPrimaryCreativeTabIndex();
+        final CountMap<BlockPos> tabRacks = tabToRacks.computeIfAbsent(tab, t -> new CountMap<>());
+        tabRacks.addTo(rack, delta);
+        if (tabRacks.isEmpty())
+        {
+            tabToRacks.remove(tab);
+        }
+    }
+
+    /**
+     * Get the racks holding a certain stack.
+     *
+     * @param stack the stack to look for.
+     * @return the racks with the count they hold, must not be modified.
+     */
+    @NotNull
+    public CountMap<BlockPos> getRacksWith(@NotNull final ItemStack stack)
+    {
+        return itemToRacks.getOrDefault(ItemStorage.probe(stack), EMPTY);
+    }
+
+    /**
+     * Get the racks holding items of the same primary creative tab.
+     *
+     * @param stack the stack to look for.
+     * @return the racks with the count of items of that tab they hold, must not be modified.
+     */
+    @NotNull
+    public CountMap<BlockPos> getRacksWithSimilar(@NotNull final ItemStack stack)
+    {
+        return tabToRacks.getOrDefault(ItemStorage.getCreativeTabIndex(stack.getItem()), EMPTY);
+    }
+
+    /**
+     * Get the total amount of every item in the network.
+     *
+     * @return a new map of item key to total amount.
+     */
+    @NotNull
+    public CountMap<ItemStorage> getTotals()
+    {
+        final CountMap<ItemStorage> totals = new CountMap<>(itemToRacks.size());
+        itemToRacks.forEach((key, racks) -> racks.forEach((rack, count) -> totals.addTo(key, count)));
+        return totals;
+    }
+
+    /**
+     * Clear the index.
+     */
+    public void clear()
+    {
+        itemToRacks.clear();
+        tabToRacks.clear();
+    }
+}
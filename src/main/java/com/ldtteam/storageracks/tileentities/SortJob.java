@@ -0,0 +1,543 @@
+package com.ldtteam.storageracks.tileentities;
+
+import com.ldtteam.storageracks.ItemStorage;
+import com.ldtteam.storageracks.inv.CombinedItemHandler;
+import com.ldtteam.storageracks.utils.ItemStackUtils;
+import com.ldtteam.storageracks.utils.Log;
+import com.ldtteam.storageracks.utils.SlotJournal;
+import com.ldtteam.storageracks.utils.SortPlanner;
+import com.ldtteam.storageracks.utils.SortSnapshot;
+import com.ldtteam.storageracks.utils.SortingUtils;
+import com.ldtteam.storageracks.utils.WorldUtil;
+import net.minecraft.item.ItemStack;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraftforge.items.IItemHandlerModifiable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Sort of a controller network which is spread over several ticks. The job only moves items between slots: first it merges partial stacks of the same item, after which
+ * the slots hold exactly the stacks of the planned layout, then it swaps them into place. The layout is planned on the worker pool from a snapshot of the content. Every
+ * step is checked against the current content of the racks, so changes made meanwhile, like by a hopper, only make the job plan again once a planned stack can not
+ * be found anymore, or when racks were added, removed or resized. A defragmentation only runs the first step, which frees up the slots of scattered partial stacks
+ * without moving anything else.
+ */
+public class SortJob
+{
+    /**
+     * How often the job plans again without making progress before giving up.
+     */
+    private static final int MAX_REPLANS = 100;
+
+    /**
+     * The phases of the job.
+     */
+    private enum Phase
+    {
+        PLANNING,
+        CONSOLIDATE,
+        INDEX,
+        PERMUTE,
+        DONE
+    }
+
+    /**
+     * The controller of the network.
+     */
+    private final TileEntityController controller;
+
+    /**
+     * If the job only merges partial stacks instead of sorting.
+     */
+    private final boolean consolidateOnly;
+
+    /**
+     * The racks of the network in slot order.
+     */
+    private final List<BlockPos> rackPositions = new ArrayList<>();
+
+    /**
+     * The amount of slots per rack when planned.
+     */
+    private int[] rackSlots = new int[0];
+
+    /**
+     * If the job has to collect its racks and plan again.
+     */
+    private boolean stale = true;
+
+    /**
+     * The snapshot the pending plan is made from.
+     */
+    @Nullable
+    private SortSnapshot snapshot;
+
+    /**
+     * The plan being made on the worker pool.
+     */
+    @Nullable
+    private CompletableFuture<SortPlanner.Plan> pendingPlan;
+
+    /**
+     * The planned stack per slot.
+     */
+    private ItemStack[] layout;
+
+    /**
+     * The current phase.
+     */
+    private Phase phase = Phase.PLANNING;
+
+    /**
+     * The next slot to process.
+     */
+    private int cursor;
+
+    /**
+     * Per item the slot of the first partial stack not yet merged, during consolidation.
+     */
+    private final Map<ItemStorage, Integer> openPartials = new HashMap<>();
+
+    /**
+     * Per item the unprocessed slots holding it, during the permutation.
+     */
+    private final Map<ItemStorage, BitSet> slotsByItem = new HashMap<>();
+
+    /**
+     * The unprocessed empty slots, during the permutation.
+     */
+    private final BitSet emptySlots = new BitSet();
+
+    /**
+     * How often the job planned again since it last made progress.
+     */
+    private int replans = 0;
+
+    /**
+     * Create a new sort job.
+     *
+     * @param controller the controller of the network.
+     */
+    public SortJob(@NotNull final TileEntityController controller)
+    {
+        this(controller, false);
+    }
+
+    /**
+     * Create a new sort or defragmentation job.
+     *
+     * @param controller      the controller of the network.
+     * @param consolidateOnly if the job only merges partial stacks instead of sorting.
+     */
+    public SortJob(@NotNull final TileEntityController controller, final boolean consolidateOnly)
+    {
+        this.controller = controller;
+        this.consolidateOnly = consolidateOnly;
+    }
+
+    /**
+     * Run the job for one tick.
+     *
+     * @param budget the maximum amount of slot visits and writes this tick.
+     * @return true if the job is finished.
+     */
+    public boolean tick(final int budget)
+    {
+        final World world = controller.getLevel();
+        if (world == null || world.isClientSide)
+        {
+            phase = Phase.DONE;
+            return true;
+        }
+
+        final List<TileEntityRack> racks = resolveRacks(world);
+        if (racks == null)
+        {
+            if (++replans > MAX_REPLANS)
+            {
+                Log.getLogger().warn((consolidateOnly ? "Defragmentation" : "Sorting") + " of the network at " + controller.getBlockPos() + " was cancelled as its racks kept changing.");
+                phase = Phase.DONE;
+                return true;
+            }
+
+            if (consolidateOnly)
+            {
+                collectRacks(world);
+                startConsolidation();
+            }
+            else
+            {
+                startPlanning(world);
+            }
+            return false;
+        }
+
+        if (phase == Phase.PLANNING)
+        {
+            if (pendingPlan == null || !pendingPlan.isDone())
+            {
+                return false;
+            }
+
+            SortPlanner.Plan plan = null;
+            try
+            {
+                plan = pendingPlan.join();
+            }
+            catch (final CompletionException e)
+            {
+                Log.getLogger().warn("Storage rack sorting had an error, report it to the mod author.", e.getCause());
+            }
+            pendingPlan = null;
+
+            if (plan == null || snapshot == null)
+            {
+                phase = Phase.DONE;
+                return true;
+            }
+            layout = SortingUtils.toLayout(snapshot, plan);
+            snapshot = null;
+            startConsolidation();
+        }
+
+        final CombinedItemHandler inv = getHandler(racks);
+        final SlotJournal journal = new SlotJournal(inv);
+        try (BulkMutationSession session = new BulkMutationSession(racks))
+        {
+            // Roll back while the session is still open, so the restored slots are committed with it.
+            try
+            {
+                int ops = 0;
+                while (phase != Phase.DONE && ops < budget)
+                {
+                    if (phase == Phase.CONSOLIDATE)
+                    {
+                        ops += consolidateStep(inv, journal);
+                    }
+                    else if (phase == Phase.INDEX)
+                    {
+                        ops += indexStep(inv);
+                    }
+                    else
+                    {
+                        final int step = permuteStep(inv, journal);
+                        if (step < 0)
+                        {
+                            // The content does not match the plan anymore, plan again next tick.
+                            stale = true;
+                            return false;
+                        }
+                        ops += step;
+                    }
+                }
+
+                if (ops > 0)
+                {
+                    replans = 0;
+                }
+            }
+            catch (final Exception e)
+            {
+                journal.rollback();
+                Log.getLogger().warn("Storage rack sorting had an error, report it to the mod author.", e);
+                phase = Phase.DONE;
+            }
+        }
+        return phase == Phase.DONE;
+    }
+
+    /**
+     * Get the racks of the job if the same racks with the same size are still loaded.
+     *
+     * @param world the world.
+     * @return the racks, or null if the job has to plan again.
+     */
+    @Nullable
+    private List<TileEntityRack> resolveRacks(final World world)
+    {
+        if (stale)
+        {
+            return null;
+        }
+
+        final List<TileEntityRack> racks = new ArrayList<>(rackPositions.size());
+        for (int i = 0; i < rackPositions.size(); i++)
+        {
+            final BlockPos pos = rackPositions.get(i);
+            if (!controller.racks.contains(pos) || !WorldUtil.isBlockLoaded(world, pos))
+            {
+                return null;
+            }
+
+            final TileEntity entity = world.getBlockEntity(pos);
+            if (!(entity instanceof TileEntityRack) || ((TileEntityRack) entity).getInventory().getSlots() != rackSlots[i])
+            {
+                return null;
+            }
+            racks.add((TileEntityRack) entity);
+        }
+        return racks;
+    }
+
+    /**
+     * Snapshot the current content of the loaded racks and plan the layout from it on the worker pool.
+     *
+     * @param world the world.
+     */
+    private void startPlanning(final World world)
+    {
+        final List<TileEntityRack> racks = collectRacks(world);
+        final SortSnapshot current = SortSnapshot.of(getHandler(racks));
+        phase = Phase.PLANNING;
+        layout = null;
+        snapshot = current;
+        pendingPlan = CompletableFuture.supplyAsync(() -> SortingUtils.plan(current));
+    }
+
+    /**
+     * Collect the loaded racks of the network and remember their size.
+     *
+     * @param world the world.
+     * @return the racks, in slot order.
+     */
+    private List<TileEntityRack> collectRacks(final World world)
+    {
+        final List<TileEntityRack> racks = new ArrayList<>();
+        rackPositions.clear();
+        for (final BlockPos pos : controller.racks)
+        {
+            if (WorldUtil.isBlockLoaded(world, pos))
+            {
+                final TileEntity entity = world.getBlockEntity(pos);
+                if (entity instanceof TileEntityRack)
+                {
+                    racks.add((TileEntityRack) entity);
+                    rackPositions.add(pos);
+                }
+            }
+        }
+
+        rackSlots = new int[racks.size()];
+        for (int i = 0; i < racks.size(); i++)
+        {
+            rackSlots[i] = racks.get(i).getInventory().getSlots();
+        }
+        stale = false;
+        return racks;
+    }
+
+    /**
+     * Restart from the first slot with merging partial stacks.
+     */
+    private void startConsolidation()
+    {
+        phase = Phase.CONSOLIDATE;
+        cursor = 0;
+        openPartials.clear();
+        slotsByItem.clear();
+        emptySlots.clear();
+    }
+
+    /**
+     * Merge the partial stack at the cursor into an earlier partial stack of the same item.
+     *
+     * @param inv     the network inventory.
+     * @param journal the journal of the writes of this tick.
+     * @return the amount of slot visits and writes.
+     */
+    private int consolidateStep(final IItemHandlerModifiable inv, final SlotJournal journal)
+    {
+        if (cursor >= inv.getSlots())
+        {
+            if (consolidateOnly)
+            {
+                openPartials.clear();
+                phase = Phase.DONE;
+            }
+            else
+            {
+                openPartials.clear();
+                phase = Phase.INDEX;
+                cursor = 0;
+            }
+            return 0;
+        }
+
+        final int slot = cursor++;
+        final ItemStack stack = inv.getStackInSlot(slot);
+        if (ItemStackUtils.isEmpty(stack) || stack.getCount() >= getCapacity(inv, slot, stack))
+        {
+            return 1;
+        }
+
+        final ItemStorage key = new ItemStorage(stack.copy());
+        final Integer target = openPartials.get(key);
+        if (target == null)
+        {
+            openPartials.put(key, slot);
+            return 1;
+        }
+
+        final ItemStack targetStack = inv.getStackInSlot(target);
+        if (!ItemStack.isSame(targetStack, stack) || !ItemStack.tagMatches(targetStack, stack) || targetStack.getCount() >= getCapacity(inv, target, targetStack))
+        {
+            // The earlier partial stack changed since it was found, merge into this one instead.
+            openPartials.put(key, slot);
+            return 1;
+        }
+
+        final int moved = Math.min(getCapacity(inv, target, targetStack) - targetStack.getCount(), stack.getCount());
+
+        final ItemStack newTarget = targetStack.copy();
+        newTarget.setCount(targetStack.getCount() + moved);
+        final ItemStack newSource = stack.copy();
+        newSource.setCount(stack.getCount() - moved);
+        journal.setStackInSlot(target, newTarget);
+        journal.setStackInSlot(slot, newSource.isEmpty() ? ItemStack.EMPTY : newSource);
+
+        if (newTarget.getCount() >= getCapacity(inv, target, newTarget))
+        {
+            if (newSource.isEmpty())
+            {
+                openPartials.remove(key);
+            }
+            else
+            {
+                openPartials.put(key, slot);
+            }
+        }
+        return 3;
+    }
+
+    /**
+     * Index the slot at the cursor by the item it holds, restarting from the first slot with the permutation once all slots are indexed.
+     *
+     * @param inv the network inventory.
+     * @return the amount of slot visits.
+     */
+    private int indexStep(final IItemHandlerModifiable inv)
+    {
+        if (cursor >= inv.getSlots())
+        {
+            phase = Phase.PERMUTE;
+            cursor = 0;
+            return 0;
+        }
+
+        final int slot = cursor++;
+        final ItemStack stack = inv.getStackInSlot(slot);
+        if (ItemStackUtils.isEmpty(stack))
+        {
+            emptySlots.set(slot);
+        }
+        else
+        {
+            slotsByItem.computeIfAbsent(new ItemStorage(stack.copy()), k -> new BitSet()).set(slot);
+        }
+        return 1;
+    }
+
+    /**
+     * Swap the planned stack into the slot at the cursor.
+     *
+     * @param inv     the network inventory.
+     * @param journal the journal of the writes of this tick.
+     * @return the amount of slot visits and writes, or -1 if no slot with the planned stack was found.
+     */
+    private int permuteStep(final IItemHandlerModifiable inv, final SlotJournal journal)
+    {
+        if (cursor >= inv.getSlots())
+        {
+            slotsByItem.clear();
+            emptySlots.clear();
+            phase = Phase.DONE;
+            return 0;
+        }
+
+        final int slot = cursor++;
+        final ItemStack current = inv.getStackInSlot(slot);
+        final ItemStack planned = layout[slot];
+        final BitSet currentSlots = getSlots(current);
+        currentSlots.clear(slot);
+        if (ItemStack.matches(current, planned))
+        {
+            return 1;
+        }
+
+        final BitSet plannedSlots = getSlots(planned);
+        int visited = 1;
+        int other = plannedSlots.nextSetBit(slot + 1);
+        while (other >= 0 && !ItemStack.matches(inv.getStackInSlot(other), planned))
+        {
+            visited++;
+            other = plannedSlots.nextSetBit(other + 1);
+        }
+
+        if (other < 0)
+        {
+            return -1;
+        }
+
+        journal.setStackInSlot(slot, inv.getStackInSlot(other));
+        journal.setStackInSlot(other, current);
+        plannedSlots.clear(other);
+        currentSlots.set(other);
+        return visited + 2;
+    }
+
+    /**
+     * Get the unprocessed slots holding the same item as a stack.
+     *
+     * @param stack the stack.
+     * @return the slots, the empty slots for an empty stack.
+     */
+    private BitSet getSlots(final ItemStack stack)
+    {
+        if (ItemStackUtils.isEmpty(stack))
+        {
+            return emptySlots;
+        }
+
+        final BitSet slots = slotsByItem.get(ItemStorage.probe(stack));
+        return slots == null ? new BitSet() : slots;
+    }
+
+    /**
+     * Get how many items of a stack fit into a slot.
+     *
+     * @param inv   the network inventory.
+     * @param slot  the slot.
+     * @param stack the stack.
+     * @return the amount.
+     */
+    private static int getCapacity(final IItemHandlerModifiable inv, final int slot, final ItemStack stack)
+    {
+        return Math.min(inv.getSlotLimit(slot), stack.getMaxStackSize());
+    }
+
+    /**
+     * Combine the inventories of racks into one.
+     *
+     * @param racks the racks.
+     * @return the combined inventory.
+     */
+    private static CombinedItemHandler getHandler(final List<TileEntityRack> racks)
+    {
+        final IItemHandlerModifiable[] handlers = new IItemHandlerModifiable[racks.size()];
+        for (int i = 0; i < racks.size(); i++)
+        {
+            handlers[i] = racks.get(i).getInventory();
+        }
+        return new CombinedItemHandler("controller", handlers);
+    }
+}
@@ -0,0 +1,345 @@
+package com.ldtteam.storageracks.tileentities;
+
+import com.ldtteam.storageracks.ItemStorage;
+import com.ldtteam.storageracks.utils.ItemStackUtils;
+import com.ldtteam.storageracks.utils.WorldUtil;
+import net.minecraft.item.ItemStack;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The slot regions of the creative tabs in a sorted network, in the same slot order the sort uses. The region of a tab reaches from the last slot of the previous tab
+ * to the first slot of the next tab, so new stacks placed into it keep the network in order. A full region grows into the nearest free slots, moving the boundary
+ * with its neighbour, until the next sort restores the strict order. Only the grouping by tab is kept, within its region a stack takes the first free slot instead
+ * of its registry position. The slots of every tab follow the content callbacks of the racks, so extractions and insertions outside of the regions move the
+ * boundaries as well.
+ */
+public class SortedRegions
+{
+    /**
+     * The racks of the network in slot order.
+     */
+    private final List<BlockPos> rackPositions = new ArrayList<>();
+
+    /**
+     * The first slot of every rack.
+     */
+    private int[] offsets = new int[0];
+
+    /**
+     * The amount of slots of every rack.
+     */
+    private int[] sizes = new int[0];
+
+    /**
+     * The total amount of slots.
+     */
+    private int totalSlots = 0;
+
+    /**
+     * The index of every rack of the regions.
+     */
+    private final Map<BlockPos, Integer> rackIndices = new HashMap<>();
+
+    /**
+     * The slots holding items of every tab.
+     */
+    private final TreeMap<Integer, BitSet> tabSlots = new TreeMap<>();
+
+    /**
+     * If the regions have to be rebuilt before the next use.
+     */
+    private boolean dirty = true;
+
+    /**
+     * Mark the regions outdated, they will be rebuilt from the racks on the next use.
+     */
+    public void markDirty()
+    {
+        dirty = true;
+    }
+
+    /**
+     * Update the slots of the tabs after the item held by a slot of a rack changed.
+     *
+     * @param rack   the pos of the rack.
+     * @param slot   the slot of the rack.
+     * @param oldKey the item key the slot held before, null if it was empty.
+     * @param newKey the item key the slot holds now, null if it is empty.
+     */
+    public void onSlotChanged(@NotNull final BlockPos rack, final int slot, @Nullable final ItemStorage oldKey, @Nullable final ItemStorage newKey)
+    {
+        if (dirty)
+        {
+            return;
+        }
+
+        final Integer index = rackIndices.get(rack);
+        if (index == null || slot >= sizes[index])
+        {
+            dirty = true;
+            return;
+        }
+
+        final int globalSlot = offsets[index] + slot;
+        if (oldKey != null)
+        {
+            final int tab = oldKey.getPrimaryCreativeTabIndex();
+            final BitSet slots = tabSlots.get(tab);
+            if (slots != null)
+            {
+                slots.clear(globalSlot);
+                if (slots.isEmpty())
+                {
+                    tabSlots.remove(tab);
+                }
+            }
+        }
+
+        if (newKey != null)
+        {
+            tabSlots.computeIfAbsent(newKey.getPrimaryCreativeTabIndex(), k -> new BitSet()).set(globalSlot);
+        }
+    }
+
+    /**
+     * Insert a stack into the free slots of the region of its creative tab, growing the region into the nearest free slots if it is full.
+     *
+     * @param world       the world.
+     * @param racks       the racks of the network.
+     * @param stack       the stack to insert, is not modified.
+     * @return the remainder that did not fit into the network.
+     */
+    @NotNull
+    public ItemStack insert(@NotNull final World world, @NotNull final Collection<BlockPos> racks, @NotNull final ItemStack stack)
+    {
+        if (dirty)
+        {
+            rebuild(world, racks);
+        }
+
+        final int tab = ItemStorage.getCreativeTabIndex(stack.getItem());
+        final Map.Entry<Integer, BitSet> previous = tabSlots.lowerEntry(tab);
+        final Map.Entry<Integer, BitSet> next = tabSlots.higherEntry(tab);
+        final int start = previous == null ? 0 : previous.getValue().length();
+        final int end = next == null ? totalSlots : next.getValue().nextSetBit(0);
+
+        ItemStack remaining = stack;
+        for (int i = 0; i < rackPositions.size() && offsets[i] < end && !remaining.isEmpty(); i++)
+        {
+            if (offsets[i] + sizes[i] <= start)
+            {
+                continue;
+            }
+
+            final TileEntityRack rack = getRack(world, i);
+            if (rack == null)
+            {
+                dirty = true;
+                return remaining;
+            }
+
+            final AbstractTileEntityRack.RackInventory inventory = (AbstractTileEntityRack.RackInventory) rack.getInventory();
+            final int localEnd = Math.min(end - offsets[i], sizes[i]);
+            for (int slot = inventory.getNextFreeSlot(Math.max(start - offsets[i], 0)); slot >= 0 && slot < localEnd && !remaining.isEmpty();
+              slot = inventory.getNextFreeSlot(slot + 1))
+            {
+                remaining = inventory.insertItem(slot, remaining, false);
+            }
+        }
+        return remaining.isEmpty() ? remaining : grow(world, start, end, remaining);
+    }
+
+    /**
+     * Grow a region into the free slots nearest to it, on either side.
+     *
+     * @param world     the world.
+     * @param start     the first slot of the region.
+     * @param end       the slot after the region.
+     * @param stack     the stack to insert, is not modified.
+     * @return the remainder that did not fit into the network.
+     */
+    @NotNull
+    private ItemStack grow(final World world, final int start, final int end, @NotNull final ItemStack stack)
+    {
+        ItemStack remaining = stack;
+        int below = Math.min(start, totalSlots) - 1;
+        int above = Math.max(end, 0);
+        while (!remaining.isEmpty() && !dirty)
+        {
+            final int lower = findFreeSlot(world, below, false);
+            final int upper = findFreeSlot(world, above, true);
+            if (lower < 0 && upper < 0)
+            {
+                break;
+            }
+
+            final int slot;
+            if (upper < 0 || (lower >= 0 && start - lower <= upper - end + 1))
+            {
+                slot = lower;
+                below = lower - 1;
+            }
+            else
+            {
+                slot = upper;
+                above = upper + 1;
+            }
+
+            final int rack = getRackIndex(slot);
+            final TileEntityRack entity = getRack(world, rack);
+            if (entity == null)
+            {
+                dirty = true;
+                break;
+            }
+            remaining = entity.getInventory().insertItem(slot - offsets[rack], remaining, false);
+        }
+        return remaining;
+    }
+
+    /**
+     * Find the nearest free slot of the network in one direction.
+     *
+     * @param world   the world.
+     * @param from    the slot to start at.
+     * @param forward true to search towards the last slot, false towards the first slot.
+     * @return the free slot, or -1 if none. Marks the regions dirty if a rack changed.
+     */
+    private int findFreeSlot(final World world, final int from, final boolean forward)
+    {
+        if (from < 0 || from >= totalSlots)
+        {
+            return -1;
+        }
+
+        for (int i = getRackIndex(from); i >= 0 && i < rackPositions.size(); i += forward ? 1 : -1)
+        {
+            final TileEntityRack rack = getRack(world, i);
+            if (rack == null)
+            {
+                dirty = true;
+                return -1;
+            }
+
+            final AbstractTileEntityRack.RackInventory inventory = (AbstractTileEntityRack.RackInventory) rack.getInventory();
+            final int local;
+            if (forward)
+            {
+                local = inventory.getNextFreeSlot(Math.max(from - offsets[i], 0));
+            }
+            else
+            {
+                local = inventory.getPreviousFreeSlot(Math.min(from - offsets[i], sizes[i] - 1));
+            }
+
+            if (local >= 0 && local < sizes[i])
+            {
+                return offsets[i] + local;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the index of the rack holding a slot.
+     *
+     * @param slot the slot.
+     * @return the index of the rack.
+     */
+    private int getRackIndex(final int slot)
+    {
+        final int found = Arrays.binarySearch(offsets, slot);
+        if (found >= 0)
+        {
+            // Skip racks without slots starting at the same offset.
+            int index = found;
+            while (index + 1 < offsets.length && offsets[index + 1] == slot)
+            {
+                index++;
+            }
+            return index;
+        }
+        return -found - 2;
+    }
+
+    /**
+     * Rebuild the regions from the content of the loaded racks.
+     *
+     * @param world the world.
+     * @param racks the racks of the network.
+     */
+    private void rebuild(final World world, final Collection<BlockPos> racks)
+    {
+        rackPositions.clear();
+        rackIndices.clear();
+        tabSlots.clear();
+        final List<TileEntityRack> loaded = new ArrayList<>();
+        for (final BlockPos pos : racks)
+        {
+            if (WorldUtil.isBlockLoaded(world, pos))
+            {
+                final TileEntity entity = world.getBlockEntity(pos);
+                if (entity instanceof TileEntityRack)
+                {
+                    rackIndices.put(pos, rackPositions.size());
+                    rackPositions.add(pos);
+                    loaded.add((TileEntityRack) entity);
+                }
+            }
+        }
+
+        offsets = new int[loaded.size()];
+        sizes = new int[loaded.size()];
+        totalSlots = 0;
+        for (int i = 0; i < loaded.size(); i++)
+        {
+            offsets[i] = totalSlots;
+            sizes[i] = loaded.get(i).getInventory().getSlots();
+            for (int slot = 0; slot < sizes[i]; slot++)
+            {
+                final ItemStack stack = loaded.get(i).getInventory().getStackInSlot(slot);
+                if (!ItemStackUtils.isEmpty(stack))
+                {
+                    tabSlots.computeIfAbsent(ItemStorage.getCreativeTabIndex(stack.getItem()), k -> new BitSet()).set(totalSlots + slot);
+                }
+            }
+            totalSlots += sizes[i];
+        }
+        dirty = false;
+    }
+
+    /**
+     * Get a rack of the regions if it is still loaded with the same size.
+     *
+     * @param world the world.
+     * @param index the index of the rack.
+     * @return the rack, or null if it changed.
+     */
+    @Nullable
+    private TileEntityRack getRack(final World world, final int index)
+    {
+        final BlockPos pos = rackPositions.get(index);
+        if (WorldUtil.isBlockLoaded(world, pos))
+        {
+            final TileEntity entity = world.getBlockEntity(pos);
+            if (entity instanceof TileEntityRack && ((TileEntityRack) entity).getInventory().getSlots() == sizes[index])
+            {
+                return (TileEntityRack) entity;
+            }
+        }
+        return null;
+    }
+}
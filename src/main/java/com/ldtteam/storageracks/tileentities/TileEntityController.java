@@ -1,8 +1,12 @@
 package com.ldtteam.storageracks.tileentities;
 
+import com.ldtteam.storageracks.ItemStorage;
+import com.ldtteam.storageracks.StorageRacks;
 import com.ldtteam.storageracks.blocks.ControllerBlock;
 import com.ldtteam.storageracks.inv.InsertContainer;
-import com.ldtteam.storageracks.utils.InventoryUtils;
+import com.ldtteam.storageracks.utils.CountMap;
+import com.ldtteam.storageracks.utils.InventoryQuery;
+import com.ldtteam.storageracks.utils.ItemStackUtils;
 import com.ldtteam.storageracks.utils.WorldUtil;
 import com.ldtteam.structurize.api.util.BlockPosUtil;
 import net.minecraft.block.BlockState;
@@ -15,6 +19,7 @@ import net.minecraft.nbt.CompoundNBT;
 import net.minecraft.nbt.ListNBT;
 import net.minecraft.network.NetworkManager;
 import net.minecraft.network.play.server.SUpdateTileEntityPacket;
+import net.minecraft.tileentity.ITickableTileEntity;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.Direction;
 import net.minecraft.util.math.BlockPos;
@@ -23,13 +28,21 @@ import net.minecraft.util.text.TranslationTextComponent;
 import net.minecraftforge.common.capabilities.Capability;
 import net.minecraftforge.common.util.LazyOptional;
 import net.minecraftforge.items.CapabilityItemHandler;
+import net.minecraftforge.items.IItemHandler;
 import net.minecraftforge.items.ItemStackHandler;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.function.Predicate;
 
 import static com.ldtteam.storageracks.utils.NbtTagConstants.*;
 import static com.ldtteam.storageracks.utils.NbtTagConstants.TAG_POS;
@@ -39,8 +52,18 @@ import static net.minecraftforge.items.CapabilityItemHandler.ITEM_HANDLER_CAPABI
 /**
  * Class which handles the tileEntity of our colony warehouse.
  */
-public class TileEntityController extends TileEntity implements INamedContainerProvider
+public class TileEntityController extends TileEntity implements INamedContainerProvider, ITickableTileEntity
 {
+    /**
+     * Ticks between two checks if the network has to be defragmented.
+     */
+    private static final int DEFRAG_CHECK_INTERVAL = 200;
+
+    /**
+     * Ticks between two checks for expired inventory overview queries.
+     */
+    private static final int QUERY_EXPIRY_INTERVAL = 100;
+
     /**
      * List of racks.
      */
@@ -61,6 +84,62 @@ public class TileEntityController extends TileEntity implements INamedContainerP
      */
     private boolean unlockedInsert;
 
+    /**
+     * Index of the content of the connected racks.
+     */
+    private final NetworkIndex index = new NetworkIndex();
+
+    /**
+     * If the index has to be rebuilt before the next lookup.
+     */
+    private boolean indexDirty = true;
+
+    /**
+     * Item keys which did not fit into any rack of the network. Cleared when a slot frees up, per key when its content changes.
+     */
+    private final Set<ItemStorage> unroutable = new HashSet<>();
+
+    /**
+     * The inventory handed out as capability.
+     */
+    private final ControllerInventory inventory = new ControllerInventory();
+
+    /**
+     * Last optional we created.
+     */
+    private LazyOptional<IItemHandler> lastOptional;
+
+    /**
+     * The running sort job, null if none.
+     */
+    @Nullable
+    private SortJob sortJob;
+
+    /**
+     * If inserted stacks are placed to keep the network sorted.
+     */
+    private boolean sortedInsert;
+
+    /**
+     * The creative tab regions used for sorted insertion.
+     */
+    private final SortedRegions regions = new SortedRegions();
+
+    /**
+     * If the content of the network changed since the last sort or defragmentation started, or since the last check found nothing to merge.
+     */
+    private boolean changedSinceDefrag = true;
+
+    /**
+     * Counter increased whenever the content or the racks of the network change, used to detect outdated inventory overview queries.
+     */
+    private long contentVersion = 0;
+
+    /**
+     * The last inventory overview query of every player, reused for its further pages while the content does not change. Forgotten once expired.
+     */
+    private final Map<UUID, InventoryQuery.Result> queries = new HashMap<>();
+
     /**
      * Controller inventory type.
      */
@@ -81,13 +160,13 @@ public class TileEntityController extends TileEntity implements INamedContainerP
             {
                 return;
             }
-            insertItemStack(stack);
+            insertItemStack(stack, false);
         }
 
         @Override
         public boolean isItemValid(final int slot, @Nonnull final ItemStack stack)
         {
-            return getRackForStack(stack) != null;
+            return canRoute(stack);
         }
 
         @Nonnull
@@ -106,20 +185,7 @@ public class TileEntityController extends TileEntity implements INamedContainerP
                 return ItemStack.EMPTY;
             }
 
-            if (simulate)
-            {
-                if (getRackForStack(stack) == null)
-                {
-                    return stack;
-                }
-                return ItemStack.EMPTY;
-            }
-
-            if (!insertItemStack(stack))
-            {
-                return stack;
-            }
-            return ItemStack.EMPTY;
+            return insertItemStack(stack, simulate);
         }
     }
 
@@ -143,19 +209,165 @@ public class TileEntityController extends TileEntity implements INamedContainerP
     }
 
     /**
-     * Insert a stack into a rack the controller is connected to.
-     * @param stack the stack to insert.
-     * @return true if successful.
+     * Check if any of a stack fits into the network. Negative results are cached until the network content changes.
+     * @param stack the stack to check.
+     * @return true if so.
      */
-    public boolean insertItemStack(final ItemStack stack)
+    public boolean canRoute(final ItemStack stack)
     {
-        final TileEntityRack rack = getRackForStack(stack);
-        if (rack == null)
+        if (level == null || level.isClientSide)
+        {
+            return getRackForStack(stack) != null;
+        }
+
+        if (isUnroutable(stack))
         {
             return false;
         }
 
-        return InventoryUtils.transferItemStackIntoNextBestSlotInItemHandler(stack, rack.getCapability(ITEM_HANDLER_CAPABILITY, null).orElse(new ItemStackHandler(0)));
+        if (getRackForStack(stack) != null || index.getRacksWith(stack).findKey(pos -> getFreeCapacity(pos, stack) > 0) != null)
+        {
+            return true;
+        }
+
+        unroutable.add(new ItemStorage(stack.copy()));
+        return false;
+    }
+
+    /**
+     * Check if a stack is known not to fit into the network.
+     * @param stack the stack to check.
+     * @return true if so.
+     */
+    private boolean isUnroutable(final ItemStack stack)
+    {
+        return !unroutable.isEmpty() && unroutable.contains(ItemStorage.probe(stack));
+    }
+
+    /**
+     * Get how many items of a stack fit into a loaded rack.
+     * @param pos   the pos of the rack.
+     * @param stack the stack to check.
+     * @return the amount, 0 if the rack is not loaded.
+     */
+    private int getFreeCapacity(final BlockPos pos, final ItemStack stack)
+    {
+        if (WorldUtil.isBlockLoaded(level, pos))
+        {
+            final TileEntity entity = getLevel().getBlockEntity(pos);
+            if (entity instanceof TileEntityRack)
+            {
+                return ((TileEntityRack) entity).getFreeCapacity(stack);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Insert a stack into the racks the controller is connected to. Racks holding the same item are filled first, then racks holding similar items, then the emptiest
+     * racks.
+     * @param stack    the stack to insert, is not modified.
+     * @param simulate if the insertion is only simulated, the remainder is calculated from the free capacity of the racks.
+     * @return the remainder that did not fit.
+     */
+    @NotNull
+    public ItemStack insertItemStack(@NotNull final ItemStack stack, final boolean simulate)
+    {
+        if (ItemStackUtils.isEmpty(stack) || isUnroutable(stack))
+        {
+            return stack;
+        }
+
+        ensureIndex();
+        final ItemStack routed = sortedInsert && !simulate ? insertSorted(stack) : stack;
+        if (routed.isEmpty())
+        {
+            return ItemStack.EMPTY;
+        }
+
+        final Set<BlockPos> visited = new HashSet<>();
+        final int[] remaining = {routed.getCount()};
+        final ItemStack[] remainder = {routed};
+
+        final Predicate<BlockPos> insertInto = pos -> {
+            if (visited.add(pos) && WorldUtil.isBlockLoaded(level, pos))
+            {
+                final TileEntity entity = getLevel().getBlockEntity(pos);
+                if (entity instanceof TileEntityRack)
+                {
+                    if (simulate)
+                    {
+                        remaining[0] -= Math.min(remaining[0], ((TileEntityRack) entity).getFreeCapacity(stack));
+                    }
+                    else
+                    {
+                        remainder[0] = ((TileEntityRack) entity).insertItemStack(remainder[0], false);
+                        remaining[0] = remainder[0].getCount();
+                    }
+                }
+            }
+            return remaining[0] <= 0;
+        };
+
+        // Copy the candidates first, inserting updates the index while it would be iterated.
+        if (!anyMatch(getPositions(index.getRacksWith(stack)), insertInto) && !anyMatch(getPositions(index.getRacksWithSimilar(stack)), insertInto))
+        {
+            for (final TileEntityRack rack : getRacksByFreeSlots(visited))
+            {
+                if (insertInto.test(rack.getBlockPos()))
+                {
+                    break;
+                }
+            }
+        }
+
+        if (remaining[0] <= 0)
+        {
+            return ItemStack.EMPTY;
+        }
+
+        if (remaining[0] == stack.getCount())
+        {
+            unroutable.add(new ItemStorage(stack.copy()));
+            return stack;
+        }
+
+        if (simulate)
+        {
+            final ItemStack result = stack.copy();
+            result.setCount(remaining[0]);
+            return result;
+        }
+        return remainder[0];
+    }
+
+    /**
+     * Insert a stack keeping the network sorted: first into partial stacks of the same item, then into the free slots of the region of its creative tab. If the region is
+     * full it grows into the nearest free slots.
+     * @param stack the stack to insert, is not modified.
+     * @return the remainder that did not fit.
+     */
+    @NotNull
+    private ItemStack insertSorted(@NotNull final ItemStack stack)
+    {
+        final ItemStack[] remainder = {stack};
+        anyMatch(getPositions(index.getRacksWith(stack)), pos -> {
+            if (WorldUtil.isBlockLoaded(level, pos))
+            {
+                final TileEntity entity = getLevel().getBlockEntity(pos);
+                if (entity instanceof TileEntityRack)
+                {
+                    remainder[0] = ((TileEntityRack) entity).insertIntoPartialSlots(remainder[0]);
+                }
+            }
+            return remainder[0].isEmpty();
+        });
+
+        if (!remainder[0].isEmpty())
+        {
+            remainder[0] = regions.insert(level, racks, remainder[0]);
+        }
+        return remainder[0];
     }
 
     /**
@@ -166,6 +378,160 @@ public class TileEntityController extends TileEntity implements INamedContainerP
         super(ModTileEntities.CONTROLLER);
     }
 
+    @Override
+    public void tick()
+    {
+        if (level == null || level.isClientSide)
+        {
+            return;
+        }
+
+        final long time = level.getGameTime();
+        if (!queries.isEmpty() && time % QUERY_EXPIRY_INTERVAL == 0)
+        {
+            queries.values().removeIf(result -> result.isExpired(time));
+        }
+
+        if (sortJob == null)
+        {
+            if (changedSinceDefrag && time % DEFRAG_CHECK_INTERVAL == 0 && isBelowDefragThreshold())
+            {
+                if (hasMergeablePartials())
+                {
+                    startDefrag();
+                }
+                else
+                {
+                    // Nothing to merge until the content changes again.
+                    changedSinceDefrag = false;
+                }
+            }
+        }
+        else if (sortJob.tick(StorageRacks.config.getServer().sortOperationsPerTick.get()))
+        {
+            sortJob = null;
+            regions.markDirty();
+        }
+    }
+
+    /**
+     * Check if the share of free slots of the loaded racks fell below the configured defragmentation threshold.
+     * @return true if so.
+     */
+    private boolean isBelowDefragThreshold()
+    {
+        final int threshold = StorageRacks.config.getServer().defragThreshold.get();
+        if (threshold <= 0)
+        {
+            return false;
+        }
+
+        long freeSlots = 0;
+        long totalSlots = 0;
+        for (final BlockPos pos : racks)
+        {
+            if (WorldUtil.isBlockLoaded(level, pos))
+            {
+                final TileEntity entity = level.getBlockEntity(pos);
+                if (entity instanceof TileEntityRack)
+                {
+                    freeSlots += ((TileEntityRack) entity).getFreeSlots();
+                    totalSlots += ((TileEntityRack) entity).getInventory().getSlots();
+                }
+            }
+        }
+        return totalSlots > 0 && freeSlots * 100 < totalSlots * threshold;
+    }
+
+    /**
+     * Check if an item has partial stacks in more than one slot of the loaded racks, which a defragmentation could merge.
+     * @return true if so.
+     */
+    private boolean hasMergeablePartials()
+    {
+        final Set<ItemStorage> partialKeys = new HashSet<>();
+        for (final BlockPos pos : racks)
+        {
+            if (WorldUtil.isBlockLoaded(level, pos))
+            {
+                final TileEntity entity = level.getBlockEntity(pos);
+                if (entity instanceof TileEntityRack)
+                {
+                    final AbstractTileEntityRack.RackInventory inventory = (AbstractTileEntityRack.RackInventory) ((TileEntityRack) entity).getInventory();
+                    if (inventory.hasMergeablePartials())
+                    {
+                        return true;
+                    }
+
+                    for (final ItemStorage key : inventory.getPartialKeys())
+                    {
+                        if (!partialKeys.add(key))
+                        {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Start sorting the connected racks, spread over several ticks. Does nothing if a sort is already running.
+     *
+     * @return true if a new sort was started.
+     */
+    public boolean startSort()
+    {
+        if (sortJob != null)
+        {
+            return false;
+        }
+        sortJob = new SortJob(this);
+        changedSinceDefrag = false;
+        return true;
+    }
+
+    /**
+     * Start merging the partial stacks of the connected racks, spread over several ticks. Does nothing if a sort is already running, as it merges them as well.
+     */
+    public void startDefrag()
+    {
+        if (sortJob == null)
+        {
+            sortJob = new SortJob(this, true);
+            changedSinceDefrag = false;
+        }
+    }
+
+    /**
+     * Toggle if inserted stacks are placed to keep the network sorted.
+     */
+    public void toggleSortedInsert()
+    {
+        this.sortedInsert = !sortedInsert;
+        regions.markDirty();
+        setChanged();
+    }
+
+    /**
+     * Check if inserted stacks are placed to keep the network sorted.
+     * @return true if so.
+     */
+    public boolean isSortedInsert()
+    {
+        return sortedInsert;
+    }
+
+    /**
+     * Check if a sort is running.
+     * @return true if so.
+     */
+    public boolean isSorting()
+    {
+        return sortJob != null;
+    }
+
     @Override
     public void load(final BlockState state, final CompoundNBT compound)
     {
@@ -178,8 +544,10 @@ public class TileEntityController extends TileEntity implements INamedContainerP
             final CompoundNBT posCompound = racksNBT.getCompound(i);
             racks.add(BlockPosUtil.readFromNBT(posCompound, TAG_POS));
         }
+        markIndexDirty();
         this.unlockedSort = compound.getBoolean(TAG_SORT);
         this.unlockedInsert = compound.getBoolean(TAG_INSERT);
+        this.sortedInsert = compound.getBoolean(TAG_SORTED_INSERT);
     }
 
     @NotNull
@@ -197,13 +565,14 @@ public class TileEntityController extends TileEntity implements INamedContainerP
         compound.put(TAG_INVENTORY, racksNBT);
         compound.putBoolean(TAG_SORT, unlockedSort);
         compound.putBoolean(TAG_INSERT, unlockedInsert);
+        compound.putBoolean(TAG_SORTED_INSERT, sortedInsert);
         return compound;
     }
 
     @Override
     public void setChanged()
     {
-        WorldUtil.markChunkDirty(level, getBlockPos());
+        DirtyQueue.markDirty(this);
     }
 
     @Override
@@ -285,46 +654,234 @@ public class TileEntityController extends TileEntity implements INamedContainerP
     @Nullable
     public TileEntityRack getPositionOfChestWithItemStack(@NotNull final ItemStack stack)
     {
+        ensureIndex();
+        return getFirstRackWithFreeSlots(index.getRacksWith(stack));
+    }
+
+    /**
+     * Find the position of the rack with a similar stack.
+     * @param stack the stack to look for.
+     * @return the pos, or null if not existent.
+     */
+    @Nullable
+    public TileEntityRack getPositionOfChestWithSimilarItemStack(@NotNull final ItemStack stack)
+    {
+        ensureIndex();
+        return getFirstRackWithFreeSlots(index.getRacksWithSimilar(stack));
+    }
+
+    /**
+     * Get the first loaded rack of a set of candidates which still has free slots.
+     * @param candidates the candidate positions.
+     * @return the rack, or null if none.
+     */
+    @Nullable
+    private TileEntityRack getFirstRackWithFreeSlots(final CountMap<BlockPos> candidates)
+    {
+        final BlockPos pos = candidates.findKey(this::hasFreeSlots);
+        return pos == null ? null : (TileEntityRack) getLevel().getBlockEntity(pos);
+    }
+
+    /**
+     * Check if there is a loaded rack with free slots at a position.
+     * @param pos the position.
+     * @return true if so.
+     */
+    private boolean hasFreeSlots(final BlockPos pos)
+    {
+        if (WorldUtil.isBlockLoaded(level, pos))
+        {
+            final TileEntity entity = getLevel().getBlockEntity(pos);
+            return entity instanceof TileEntityRack && ((TileEntityRack) entity).getFreeSlots() > 0;
+        }
+        return false;
+    }
+
+    /**
+     * Rebuild the index from the connected racks if it is outdated.
+     */
+    private void ensureIndex()
+    {
+        if (!indexDirty || level == null || level.isClientSide)
+        {
+            return;
+        }
+
+        index.clear();
         for (final BlockPos pos : racks)
         {
             if (WorldUtil.isBlockLoaded(level, pos))
             {
-                final TileEntity entity = getLevel().getBlockEntity(pos);
-                if (entity instanceof AbstractTileEntityRack)
+                final TileEntity entity = level.getBlockEntity(pos);
+                if (entity instanceof TileEntityRack)
                 {
-                    if (((AbstractTileEntityRack) entity).getFreeSlots() > 0 && ((AbstractTileEntityRack) entity).hasItemStack(stack, 1))
-                    {
-                        return (TileEntityRack) entity;
-                    }
+                    final TileEntityRack rack = (TileEntityRack) entity;
+                    rack.setController(getBlockPos());
+                    rack.getAllContent().forEach((key, count) -> index.update(pos, key, count));
                 }
             }
         }
-        return null;
+        indexDirty = false;
     }
 
     /**
-     * Find the position of the rack with a similar stack.
-     * @param stack the stack to look for.
-     * @return the pos, or null if not existent.
+     * Get the total amount of every item in the loaded racks of the network.
+     * @return a new map of item key to total amount.
      */
-    @Nullable
-    public TileEntityRack getPositionOfChestWithSimilarItemStack(@NotNull final ItemStack stack)
+    @NotNull
+    public CountMap<ItemStorage> getContentTotals()
+    {
+        ensureIndex();
+        return index.getTotals();
+    }
+
+    /**
+     * Get the version of the content of the network, which changes whenever the content or the racks change.
+     * @return the version.
+     */
+    public long getContentVersion()
+    {
+        return contentVersion;
+    }
+
+    /**
+     * Query the content of the network for the inventory overview of a player. The result is kept and reused for the further pages of the same query until the
+     * content changes, but at least for a second so pages fetched together match.
+     * @param player         the id of the player.
+     * @param queryId        the id of the query.
+     * @param filter         the filter on the name, empty for all items.
+     * @param sortDescriptor the order of the rows.
+     * @return the result.
+     */
+    @NotNull
+    public InventoryQuery.Result queryContent(@NotNull final UUID player, final int queryId, @NotNull final String filter, final int sortDescriptor)
+    {
+        final long time = level.getGameTime();
+        final long version = getContentVersion();
+        final InventoryQuery.Result cached = queries.get(player);
+        if (cached != null && cached.matches(queryId, filter, sortDescriptor, time, version))
+        {
+            return cached;
+        }
+
+        final CountMap<ItemStorage> totals = getContentTotals();
+        final InventoryQuery.Result result =
+          new InventoryQuery.Result(queryId, filter, sortDescriptor, time, version, totals, InventoryQuery.query(totals, filter, sortDescriptor));
+        queries.put(player, result);
+        return result;
+    }
+
+    /**
+     * Mark the index outdated, it will be rebuilt on the next lookup.
+     */
+    public void markIndexDirty()
+    {
+        contentVersion++;
+        indexDirty = true;
+        unroutable.clear();
+        regions.markDirty();
+    }
+
+    /**
+     * Called by the racks when their content changed.
+     * @param rack  the pos of the rack.
+     * @param key   the item key that changed.
+     * @param delta the change in quantity.
+     */
+    public void onRackContentChanged(final BlockPos rack, final ItemStorage key, final long delta)
+    {
+        contentVersion++;
+        changedSinceDefrag = true;
+        if (!unroutable.isEmpty())
+        {
+            unroutable.remove(key);
+        }
+
+        if (!indexDirty && racks.contains(rack))
+        {
+            index.update(rack, key, delta);
+        }
+    }
+
+    /**
+     * Called by the racks when one of their slots became free.
+     * @param rack the pos of the rack.
+     */
+    public void onRackSlotFreed(final BlockPos rack)
     {
+        if (racks.contains(rack))
+        {
+            unroutable.clear();
+        }
+    }
+
+    /**
+     * Called by the racks when the item held by one of their slots changed.
+     * @param rack   the pos of the rack.
+     * @param slot   the slot.
+     * @param oldKey the item key the slot held before, null if it was empty.
+     * @param newKey the item key the slot holds now, null if it is empty.
+     */
+    public void onRackSlotKeyChanged(final BlockPos rack, final int slot, @Nullable final ItemStorage oldKey, @Nullable final ItemStorage newKey)
+    {
+        if (sortedInsert)
+        {
+            regions.onSlotChanged(rack, slot, oldKey, newKey);
+        }
+    }
+
+    /**
+     * Copy the positions of a candidate map.
+     * @param candidates the candidates.
+     * @return the positions.
+     */
+    private static List<BlockPos> getPositions(final CountMap<BlockPos> candidates)
+    {
+        final List<BlockPos> positions = new ArrayList<>(candidates.size());
+        candidates.forEach((pos, count) -> positions.add(pos));
+        return positions;
+    }
+
+    /**
+     * Check if a predicate matches any of some positions, stopping at the first match.
+     * @param positions the positions.
+     * @param predicate the predicate.
+     * @return true if one matched.
+     */
+    private static boolean anyMatch(final List<BlockPos> positions, final Predicate<BlockPos> predicate)
+    {
+        for (final BlockPos pos : positions)
+        {
+            if (predicate.test(pos))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the loaded racks with free slots in one pass, the emptiest first.
+     *
+     * @param excluded racks to skip.
+     * @return the racks.
+     */
+    private List<TileEntityRack> getRacksByFreeSlots(final Set<BlockPos> excluded)
+    {
+        final List<TileEntityRack> candidates = new ArrayList<>();
         for (final BlockPos pos : racks)
         {
-            if (WorldUtil.isBlockLoaded(level, pos))
+            if (!excluded.contains(pos) && WorldUtil.isBlockLoaded(level, pos))
             {
                 final TileEntity entity = getLevel().getBlockEntity(pos);
-                if (entity instanceof AbstractTileEntityRack)
+                if (entity instanceof TileEntityRack && ((TileEntityRack) entity).getFreeSlots() > 0)
                 {
-                    if (((AbstractTileEntityRack) entity).getFreeSlots() > 0 && ((AbstractTileEntityRack) entity).hasSimilarStack(stack))
-                    {
-                        return (TileEntityRack) entity;
-                    }
+                    candidates.add((TileEntityRack) entity);
                 }
             }
         }
-        return null;
+        candidates.sort(Comparator.comparingInt(TileEntityRack::getFreeSlots).reversed());
+        return candidates;
     }
 
     /**
@@ -371,6 +928,7 @@ public class TileEntityController extends TileEntity implements INamedContainerP
         }
         racks.clear();
         racks.addAll(visitedPositions);
+        markIndexDirty();
         this.setChanged();
     }
 
@@ -381,6 +939,7 @@ public class TileEntityController extends TileEntity implements INamedContainerP
     public void removeAll(final Set<BlockPos> visitedPositions)
     {
         racks.removeAll(visitedPositions);
+        markIndexDirty();
         this.setChanged();
     }
 
@@ -390,11 +949,37 @@ public class TileEntityController extends TileEntity implements INamedContainerP
     {
         if (!remove && capability == CapabilityItemHandler.ITEM_HANDLER_CAPABILITY)
         {
-            return LazyOptional.of(() -> (T) new ControllerInventory());
+            if (lastOptional != null && lastOptional.isPresent())
+            {
+                return lastOptional.cast();
+            }
+
+            lastOptional = LazyOptional.of(() -> inventory);
+            return lastOptional.cast();
         }
         return super.getCapability(capability, dir);
     }
 
+    @Override
+    public void invalidateCaps()
+    {
+        super.invalidateCaps();
+        invalidateCap();
+    }
+
+    /**
+     * Invalidates the cap
+     */
+    private void invalidateCap()
+    {
+        if (lastOptional != null && lastOptional.isPresent())
+        {
+            lastOptional.invalidate();
+        }
+
+        lastOptional = null;
+    }
+
     @NotNull
     @Override
     public ITextComponent getDisplayName()
@@ -4,7 +4,8 @@ import com.ldtteam.storageracks.ItemStorage;
 import com.ldtteam.storageracks.blocks.RackBlock;
 import com.ldtteam.storageracks.blocks.RackType;
 import com.ldtteam.storageracks.inv.ContainerRack;
-import com.ldtteam.storageracks.utils.ItemStackUtils;
+import com.ldtteam.storageracks.utils.CountMap;
+import com.ldtteam.storageracks.utils.SyncedStackUtils;
 import com.ldtteam.storageracks.utils.WorldUtil;
 import com.ldtteam.structurize.api.util.BlockPosUtil;
 import net.minecraft.block.BlockState;
@@ -23,6 +24,7 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.text.ITextComponent;
 import net.minecraft.util.text.TranslationTextComponent;
 import net.minecraft.world.World;
+import net.minecraft.world.server.ServerWorld;
 import net.minecraftforge.common.capabilities.Capability;
 import net.minecraftforge.common.util.LazyOptional;
 import net.minecraftforge.items.CapabilityItemHandler;
@@ -32,9 +34,7 @@ import org.jetbrains.annotations.NotNull;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 import java.util.function.Predicate;
 
@@ -48,19 +48,19 @@ import static net.minecraftforge.common.util.Constants.NBT.TAG_COMPOUND;
 public class TileEntityRack extends AbstractTileEntityRack
 {
     /**
-     * The content of the chest.
+     * Minimum ticks between two content summaries sent to the players tracking the rack.
      */
-    private final Map<ItemStorage, Integer> content = new HashMap<>();
+    private static final int SUMMARY_INTERVAL = 10;
 
     /**
-     * Size multiplier of the inventory. 0 = default value. 1 = 1*9 additional slots, and so on.
+     * The content of the chest.
      */
-    private int size = 0;
+    private final CountMap<ItemStorage> content = new CountMap<>();
 
     /**
-     * Amount of free slots
+     * Size multiplier of the inventory. 0 = default value. 1 = 1*9 additional slots, and so on.
      */
-    private int freeSlots = 0;
+    private int size = 0;
 
     /**
      * Offset to the controller.
@@ -72,6 +72,41 @@ public class TileEntityRack extends AbstractTileEntityRack
      */
     private LazyOptional<IItemHandler> lastOptional;
 
+    /**
+     * Counter increased on every change of the content, used to detect changes between two observations.
+     */
+    private int generation = 0;
+
+    /**
+     * Depth of nested batches, content change notifications are deferred while above 0.
+     */
+    private int batchDepth = 0;
+
+    /**
+     * If the rack was empty when the outermost batch began.
+     */
+    private boolean batchWasEmpty;
+
+    /**
+     * If the content changed during the current batch.
+     */
+    private boolean batchChanged;
+
+    /**
+     * The generation last sent to the players tracking the rack.
+     */
+    private int syncedGeneration = -1;
+
+    /**
+     * The game time the last content summary was sent to the players tracking the rack.
+     */
+    private long lastSummaryTime = -SUMMARY_INTERVAL;
+
+    /**
+     * The version of the last content summary received from the server, on the client.
+     */
+    private long summaryVersion = Long.MIN_VALUE;
+
     /**
      * New TileEntity.
      */
@@ -93,54 +128,71 @@ public class TileEntityRack extends AbstractTileEntityRack
     @Override
     public int getFreeSlots()
     {
-        return freeSlots;
+        return getRackInventory().getFreeSlots();
+    }
+
+    /**
+     * Get how many items of a stack fit into the rack.
+     *
+     * @param stack the stack to check.
+     * @return the amount of items that fit.
+     */
+    public int getFreeCapacity(final ItemStack stack)
+    {
+        return getRackInventory().getFreeCapacity(stack);
+    }
+
+    /**
+     * Insert a stack into the best slots of the rack.
+     *
+     * @param stack    the stack to insert, is not modified.
+     * @param simulate if the insertion is only simulated.
+     * @return the remainder that did not fit.
+     */
+    public ItemStack insertItemStack(final ItemStack stack, final boolean simulate)
+    {
+        return getRackInventory().insertItemStack(stack, simulate);
+    }
+
+    /**
+     * Insert a stack only into partially filled slots of the same item.
+     *
+     * @param stack the stack to insert, is not modified.
+     * @return the remainder that did not fit.
+     */
+    public ItemStack insertIntoPartialSlots(final ItemStack stack)
+    {
+        return getRackInventory().insertIntoPartialSlots(stack, false);
     }
 
     @Override
     public boolean hasItemStack(final ItemStack stack, final int count)
     {
-        final ItemStorage checkItem = new ItemStorage(stack);
-        return content.getOrDefault(checkItem, 0) >= count;
+        return content.get(ItemStorage.probe(stack)) >= count;
     }
 
     @Override
     public int getCount(final ItemStack stack)
     {
-        final ItemStorage checkItem = new ItemStorage(stack);
-        return content.getOrDefault(checkItem, 0);
+        return (int) content.get(ItemStorage.probe(stack));
     }
 
     @Override
     public boolean hasItemStack(@NotNull final Predicate<ItemStack> itemStackSelectionPredicate)
     {
-        for (final Map.Entry<ItemStorage, Integer> entry : content.entrySet())
-        {
-            if (itemStackSelectionPredicate.test(entry.getKey().getItemStack()))
-            {
-                return true;
-            }
-        }
-        return false;
+        return content.findKey(storage -> itemStackSelectionPredicate.test(storage.getItemStack())) != null;
     }
 
     @Override
     public boolean hasSimilarStack(@NotNull final ItemStack stack)
     {
-        final ItemStorage checkItem = new ItemStorage(stack);
-        if (content.containsKey(checkItem))
+        if (content.containsKey(ItemStorage.probe(stack)))
         {
             return true;
         }
 
-        for (final ItemStorage storage : content.keySet())
-        {
-           if (checkItem.getPrimaryCreativeTabIndex() == storage.getPrimaryCreativeTabIndex())
-           {
-               return true;
-           }
-        }
-
-        return false;
+        final int creativeTabIndex = ItemStorage.getCreativeTabIndex(stack.getItem());
+        return content.findKey(storage -> creativeTabIndex == storage.getPrimaryCreativeTabIndex()) != null;
     }
 
     /**
@@ -148,7 +200,7 @@ public class TileEntityRack extends AbstractTileEntityRack
      *
      * @return the map of content.
      */
-    public Map<ItemStorage, Integer> getAllContent()
+    public CountMap<ItemStorage> getAllContent()
     {
         return content;
     }
@@ -157,9 +209,10 @@ public class TileEntityRack extends AbstractTileEntityRack
     public void upgradeItemStorage()
     {
         final RackInventory tempInventory = new RackInventory(DEFAULT_SIZE + size * SLOT_PER_LINE);
+        resetContent();
         for (int slot = 0; slot < inventory.getSlots(); slot++)
         {
-            tempInventory.setStackInSlot(slot, inventory.getStackInSlot(slot));
+            tempInventory.loadStackInSlot(slot, inventory.getStackInSlot(slot));
         }
 
         inventory = tempInventory;
@@ -171,25 +224,82 @@ public class TileEntityRack extends AbstractTileEntityRack
     @Override
     public int getItemCount(final Predicate<ItemStack> predicate)
     {
-        for (final Map.Entry<ItemStorage, Integer> entry : content.entrySet())
+        final ItemStorage storage = content.findKey(key -> predicate.test(key.getItemStack()));
+        return storage == null ? 0 : (int) content.get(storage);
+    }
+
+    @Override
+    public void updateItemStorage()
+    {
+        final RackInventory rackInventory = getRackInventory();
+        final boolean wasEmpty = isEmpty();
+        boolean changed = false;
+        for (int slot = 0; slot < rackInventory.getSlots(); slot++)
         {
-            if (predicate.test(entry.getKey().getItemStack()))
-            {
-                return entry.getValue();
-            }
+            changed |= rackInventory.updateSlot(slot);
+        }
+
+        if (changed)
+        {
+            onContentChanged(wasEmpty);
         }
-        return 0;
     }
 
     @Override
-    public void updateItemStorage()
+    protected void updateContent(final ItemStorage key, final int delta)
     {
-        if (level != null && !level.isClientSide)
+        if (level != null && level.isClientSide)
+        {
+            // The client content only comes from the summaries of the server.
+            return;
+        }
+        content.addTo(key, delta);
+
+        final TileEntityController controller = getController();
+        if (controller != null)
         {
-            final boolean empty = content.isEmpty();
-            updateContent();
+            controller.onRackContentChanged(getBlockPos(), key, delta);
+        }
+    }
 
-            if ((empty && !content.isEmpty()) || !empty && content.isEmpty())
+    @Override
+    protected void onSlotFreed()
+    {
+        final TileEntityController controller = getController();
+        if (controller != null)
+        {
+            controller.onRackSlotFreed(getBlockPos());
+        }
+    }
+
+    @Override
+    protected void onSlotKeyChanged(final int slot, @Nullable final ItemStorage oldKey, @Nullable final ItemStorage newKey)
+    {
+        if (level == null || level.isClientSide)
+        {
+            return;
+        }
+
+        final TileEntityController controller = getController();
+        if (controller != null)
+        {
+            controller.onRackSlotKeyChanged(getBlockPos(), slot, oldKey, newKey);
+        }
+    }
+
+    @Override
+    protected void onContentChanged(final boolean wasEmpty)
+    {
+        generation++;
+        if (batchDepth > 0)
+        {
+            batchChanged = true;
+            return;
+        }
+
+        if (level != null && !level.isClientSide)
+        {
+            if (wasEmpty != isEmpty())
             {
                 updateBlockState();
             }
@@ -198,32 +308,63 @@ public class TileEntityRack extends AbstractTileEntityRack
     }
 
     /**
-     * Just do the content update.
+     * Get the generation of the content, which changes whenever the content changes.
+     *
+     * @return the generation.
      */
-    private void updateContent()
+    public int getGeneration()
     {
-        content.clear();
-        freeSlots = 0;
-        for (int slot = 0; slot < inventory.getSlots(); slot++)
+        return generation;
+    }
+
+    /**
+     * Begin a batch of changes. Until the matching {@link #endBatch()} the block state update and the sync are deferred, so they are issued once for the whole batch.
+     */
+    public void beginBatch()
+    {
+        if (batchDepth++ == 0)
         {
-            final ItemStack stack = inventory.getStackInSlot(slot);
+            batchWasEmpty = isEmpty();
+            batchChanged = false;
+        }
+    }
 
-            if (ItemStackUtils.isEmpty(stack))
-            {
-                freeSlots++;
-                continue;
-            }
+    /**
+     * End a batch of changes, issuing the deferred update if the content changed.
+     */
+    public void endBatch()
+    {
+        if (batchDepth > 0 && --batchDepth == 0 && batchChanged)
+        {
+            batchChanged = false;
+            onContentChanged(batchWasEmpty);
+        }
+    }
 
-            final ItemStorage storage = new ItemStorage(stack.copy());
-            int amount = ItemStackUtils.getSize(stack);
-            if (content.containsKey(storage))
-            {
-                amount += content.remove(storage);
-            }
-            content.put(storage, amount);
+    /**
+     * Clear the content before the inventory is replaced, the controller index has to be rebuilt afterwards.
+     */
+    private void resetContent()
+    {
+        generation++;
+        content.clear();
+        final TileEntityController controller = getController();
+        if (controller != null)
+        {
+            controller.markIndexDirty();
         }
     }
 
+    /**
+     * Get the inventory as rack inventory.
+     *
+     * @return the rack inventory.
+     */
+    private RackInventory getRackInventory()
+    {
+        return (RackInventory) inventory;
+    }
+
     @Override
     public void updateBlockState()
     {
@@ -262,6 +403,8 @@ public class TileEntityRack extends AbstractTileEntityRack
         checkForUpgrade(state, oldSize);
 
         inventory = createInventory(DEFAULT_SIZE + size * SLOT_PER_LINE);
+        content.clear();
+        generation++;
 
         final ListNBT inventoryTagList = compound.getList(TAG_INVENTORY, TAG_COMPOUND);
         for (int i = 0; i < inventoryTagList.size(); i++)
@@ -270,14 +413,33 @@ public class TileEntityRack extends AbstractTileEntityRack
             if (!inventoryCompound.contains(TAG_EMPTY))
             {
                 final ItemStack stack = ItemStack.of(inventoryCompound);
-                inventory.setStackInSlot(i, stack);
+                getRackInventory().loadStackInSlot(i, stack);
             }
         }
 
-        updateContent();
-
         this.controllerPos = BlockPosUtil.readFromNBT(compound, TAG_POS);
+        if (!controllerPos.equals(BlockPos.ZERO))
+        {
+            this.controller = getBlockPos().subtract(controllerPos);
+        }
         invalidateCap();
+
+        final TileEntityController controller = getController();
+        if (controller != null)
+        {
+            controller.markIndexDirty();
+        }
+    }
+
+    @Override
+    public void onLoad()
+    {
+        super.onLoad();
+        final TileEntityController controller = getController();
+        if (controller != null)
+        {
+            controller.markIndexDirty();
+        }
     }
 
     //Make a dag between rack -> controller
@@ -338,30 +500,95 @@ public class TileEntityRack extends AbstractTileEntityRack
         return compound;
     }
 
+    /**
+     * Write the summary sent to the players tracking the rack: the size, the controller and the amount of every item, but no slots. Large item tags are replaced by
+     * their digest. The summary is stamped with the game time, which keeps increasing when the rack is reloaded.
+     *
+     * @param compound the compound to write to.
+     * @return the compound.
+     */
+    private CompoundNBT saveSummary(final CompoundNBT compound)
+    {
+        super.save(compound);
+        compound.putInt(TAG_SIZE, size);
+
+        final ListNBT summary = new ListNBT();
+        content.forEach((key, count) -> {
+            final CompoundNBT entry = new CompoundNBT();
+            SyncedStackUtils.toClient(key).save(entry);
+            entry.putLong(TAG_COUNT, count);
+            summary.add(entry);
+        });
+        compound.put(TAG_SUMMARY, summary);
+        compound.putLong(TAG_VERSION, level == null ? 0 : level.getGameTime());
+        BlockPosUtil.writeToNBT(compound, TAG_POS, controllerPos);
+        return compound;
+    }
+
+    /**
+     * Load the summary received from the server. The slots are only kept if the size did not change, they are synced by the container to the players viewing the rack.
+     * Summaries older than the last one received are dropped.
+     *
+     * @param state    the block state.
+     * @param compound the summary.
+     */
+    private void loadSummary(final BlockState state, final CompoundNBT compound)
+    {
+        final long version = compound.getLong(TAG_VERSION);
+        if (version < summaryVersion)
+        {
+            return;
+        }
+        summaryVersion = version;
+
+        super.load(state, compound);
+        size = compound.getInt(TAG_SIZE);
+        final int slots = DEFAULT_SIZE + size * SLOT_PER_LINE;
+        if (inventory.getSlots() != slots)
+        {
+            inventory = createInventory(slots);
+            invalidateCap();
+        }
+
+        content.clear();
+        generation++;
+        final ListNBT summary = compound.getList(TAG_SUMMARY, TAG_COMPOUND);
+        for (int i = 0; i < summary.size(); i++)
+        {
+            final CompoundNBT entry = summary.getCompound(i);
+            content.addTo(new ItemStorage(ItemStack.of(entry)), entry.getLong(TAG_COUNT));
+        }
+
+        this.controllerPos = BlockPosUtil.readFromNBT(compound, TAG_POS);
+        if (!controllerPos.equals(BlockPos.ZERO))
+        {
+            this.controller = getBlockPos().subtract(controllerPos);
+        }
+    }
+
     @Override
     public SUpdateTileEntityPacket getUpdatePacket()
     {
-        final CompoundNBT compound = new CompoundNBT();
-        return new SUpdateTileEntityPacket(this.getBlockPos(), 0, this.save(compound));
+        return new SUpdateTileEntityPacket(this.getBlockPos(), 0, this.saveSummary(new CompoundNBT()));
     }
 
     @NotNull
     @Override
     public CompoundNBT getUpdateTag()
     {
-        return this.save(new CompoundNBT());
+        return this.saveSummary(new CompoundNBT());
     }
 
     @Override
     public void onDataPacket(final NetworkManager net, final SUpdateTileEntityPacket packet)
     {
-        this.load(getBlockState(), packet.getTag());
+        this.loadSummary(getBlockState(), packet.getTag());
     }
 
     @Override
     public void handleUpdateTag(final BlockState state, final CompoundNBT tag)
     {
-        this.load(state, tag);
+        this.loadSummary(state, tag);
     }
 
     @Nonnull
@@ -392,6 +619,37 @@ public class TileEntityRack extends AbstractTileEntityRack
     @Override
     public void setChanged()
     {
+        DirtyQueue.markDirty(this);
+    }
+
+    /**
+     * Mark the chunk dirty and sync the rack. The players tracking the rack get a summary of its content if it changed, at most every {@link #SUMMARY_INTERVAL} ticks.
+     * The players viewing the rack get the changed slots from the container sync.
+     */
+    public void syncChanges()
+    {
+        if (!(level instanceof ServerWorld) || !WorldUtil.isBlockLoaded(level, getBlockPos()))
+        {
+            return;
+        }
+
+        if (syncedGeneration == generation)
+        {
+            WorldUtil.markChunkUnsaved(level, getBlockPos());
+            return;
+        }
+
+        final long time = level.getGameTime();
+        if (time - lastSummaryTime < SUMMARY_INTERVAL)
+        {
+            // Sent a summary recently, try again next tick so bursts of changes are sent once.
+            WorldUtil.markChunkUnsaved(level, getBlockPos());
+            DirtyQueue.markDirty(this);
+            return;
+        }
+
+        syncedGeneration = generation;
+        lastSummaryTime = time;
         WorldUtil.markChunkDirty(level, getBlockPos());
     }
 
@@ -441,6 +699,40 @@ public class TileEntityRack extends AbstractTileEntityRack
         return size;
     }
 
+    /**
+     * Set the controller this rack is connected to.
+     *
+     * @param controllerPos the pos of the controller.
+     */
+    public void setController(final BlockPos controllerPos)
+    {
+        this.controller = getBlockPos().subtract(controllerPos);
+        this.controllerPos = controllerPos;
+    }
+
+    /**
+     * Get the controller this rack is connected to, if it is loaded.
+     *
+     * @return the controller or null.
+     */
+    @Nullable
+    public TileEntityController getController()
+    {
+        if (controller == null || level == null || level.isClientSide)
+        {
+            return null;
+        }
+
+        final BlockPos pos = getBlockPos().subtract(controller);
+        if (!WorldUtil.isBlockLoaded(level, pos))
+        {
+            return null;
+        }
+
+        final TileEntity entity = level.getBlockEntity(pos);
+        return entity instanceof TileEntityController ? (TileEntityController) entity : null;
+    }
+
     /**
      * Return false if not successful.
      * @return false if so.
@@ -451,13 +743,13 @@ public class TileEntityRack extends AbstractTileEntityRack
         final BlockPos controller = visitPositions(level, visitedPositions, this.getBlockPos());
         if (controller != BlockPos.ZERO && controller != null)
         {
-            this.controller = getBlockPos().subtract(controller);
+            setController(controller);
             ((TileEntityController) level.getBlockEntity(controller)).addAll(visitedPositions);
             for (final BlockPos pos : visitedPositions)
             {
                 if (!pos.equals(controller))
                 {
-                    ((TileEntityRack) level.getBlockEntity(pos)).controller = pos.subtract(controller);
+                    ((TileEntityRack) level.getBlockEntity(pos)).setController(controller);
                 }
             }
         }
@@ -471,6 +763,7 @@ public class TileEntityRack extends AbstractTileEntityRack
                 {
                     oldController = rack.getBlockPos().subtract(rack.controller);
                     rack.controller = null;
+                    rack.controllerPos = BlockPos.ZERO;
                 }
             }
 
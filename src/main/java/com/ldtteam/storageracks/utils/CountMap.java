@@ -0,0 +1,310 @@
+package com.ldtteam.storageracks.utils;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Open addressed map from an object to a primitive long count. Entries whose count drops to zero or below are removed.
+ * <p>
+ * Lookups call {@code equals} on the queried key with the stored key as argument, so lookup keys like {@link com.ldtteam.storageracks.ItemStorage#probe} can be used.
+ *
+ * @param <K> the key type.
+ */
+public class CountMap<K>
+{
+    /**
+     * Default amount of buckets, must be a power of two.
+     */
+    private static final int DEFAULT_CAPACITY = 8;
+
+    /**
+     * The keys, null for free buckets.
+     */
+    private Object[] keys;
+
+    /**
+     * The counts matching the keys.
+     */
+    private long[] values;
+
+    /**
+     * Amount of entries.
+     */
+    private int size;
+
+    /**
+     * Create a new empty count map.
+     */
+    public CountMap()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a new empty count map.
+     *
+     * @param expectedSize the amount of entries expected.
+     */
+    public CountMap(final int expectedSize)
+    {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity < expectedSize * 2)
+        {
+            capacity <<= 1;
+        }
+        this.keys = new Object[capacity];
+        this.values = new long[capacity];
+    }
+
+    /**
+     * Get the count of a key.
+     *
+     * @param key the key.
+     * @return the count, or 0 if not present.
+     */
+    public long get(@NotNull final Object key)
+    {
+        final int index = indexOf(key);
+        return index < 0 ? 0 : values[index];
+    }
+
+    /**
+     * Check if a key is present.
+     *
+     * @param key the key.
+     * @return true if so.
+     */
+    public boolean containsKey(@NotNull final Object key)
+    {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Add a delta to the count of a key. The key is added if not present and removed if the count drops to zero or below.
+     *
+     * @param key   the key.
+     * @param delta the delta.
+     * @return the new count.
+     */
+    public long addTo(@NotNull final K key, final long delta)
+    {
+        final int mask = keys.length - 1;
+        int index = mix(key.hashCode()) & mask;
+        while (keys[index] != null)
+        {
+            if (key.equals(keys[index]))
+            {
+                final long amount = values[index] + delta;
+                if (amount <= 0)
+                {
+                    removeAt(index);
+                    return 0;
+                }
+                values[index] = amount;
+                return amount;
+            }
+            index = (index + 1) & mask;
+        }
+
+        if (delta <= 0)
+        {
+            return 0;
+        }
+
+        keys[index] = key;
+        values[index] = delta;
+        if (++size * 2 > keys.length)
+        {
+            rehash(keys.length << 1);
+        }
+        return delta;
+    }
+
+    /**
+     * Set the count of a key. A count of zero or below removes the key.
+     *
+     * @param key   the key.
+     * @param count the count.
+     */
+    public void put(@NotNull final K key, final long count)
+    {
+        remove(key);
+        addTo(key, count);
+    }
+
+    /**
+     * Remove a key.
+     *
+     * @param key the key.
+     * @return the count it had, or 0 if not present.
+     */
+    public long remove(@NotNull final Object key)
+    {
+        final int index = indexOf(key);
+        if (index < 0)
+        {
+            return 0;
+        }
+        final long amount = values[index];
+        removeAt(index);
+        return amount;
+    }
+
+    /**
+     * Find the first key matching a predicate.
+     *
+     * @param predicate the predicate.
+     * @return the key, or null if none matches.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public K findKey(@NotNull final Predicate<? super K> predicate)
+    {
+        for (final Object key : keys)
+        {
+            if (key != null && predicate.test((K) key))
+            {
+                return (K) key;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Run an action for every entry.
+     *
+     * @param action the action, receiving key and count.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(@NotNull final ObjLongConsumer<? super K> action)
+    {
+        for (int i = 0; i < keys.length; i++)
+        {
+            if (keys[i] != null)
+            {
+                action.accept((K) keys[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * Get the amount of entries.
+     *
+     * @return the amount.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Check if the map has no entries.
+     *
+     * @return true if so.
+     */
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public void clear()
+    {
+        Arrays.fill(keys, null);
+        size = 0;
+    }
+
+    /**
+     * Find the bucket of a key.
+     *
+     * @param key the key.
+     * @return the bucket index, or -1 if not present.
+     */
+    private int indexOf(final Object key)
+    {
+        final int mask = keys.length - 1;
+        int index = mix(key.hashCode()) & mask;
+        while (keys[index] != null)
+        {
+            if (key.equals(keys[index]))
+            {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Remove the entry in a bucket, shifting following entries of the same cluster back.
+     *
+     * @param index the bucket index.
+     */
+    private void removeAt(final int index)
+    {
+        final int mask = keys.length - 1;
+        int free = index;
+        int next = (free + 1) & mask;
+        while (keys[next] != null)
+        {
+            final int home = mix(keys[next].hashCode()) & mask;
+            // Move the entry back if its home bucket is not between the free bucket and its current one.
+            if (((next - home) & mask) >= ((next - free) & mask))
+            {
+                keys[free] = keys[next];
+                values[free] = values[next];
+                free = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[free] = null;
+        values[free] = 0;
+        size--;
+    }
+
+    /**
+     * Grow the table.
+     *
+     * @param capacity the new amount of buckets.
+     */
+    private void rehash(final int capacity)
+    {
+        final Object[] oldKeys = keys;
+        final long[] oldValues = values;
+        keys = new Object[capacity];
+        values = new long[capacity];
+
+        final int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (oldKeys[i] != null)
+            {
+                int index = mix(oldKeys[i].hashCode()) & mask;
+                while (keys[index] != null)
+                {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Spread the bits of a hash code, as the low bits select the bucket.
+     *
+     * @param hash the hash code.
+     * @return the mixed hash.
+     */
+    private static int mix(final int hash)
+    {
+        final int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,273 @@
+package com.ldtteam.storageracks.utils;
+
+import com.ldtteam.storageracks.ItemStorage;
+import net.minecraft.item.ItemStack;
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import static com.ldtteam.storageracks.utils.WindowConstants.*;
+
+/**
+ * Filters and sorts the content of a network for the inventory overview, on the server. Names are resolved by the server, so untranslated modded names may be
+ * matched and ordered by their translation key.
+ */
+public final class InventoryQuery
+{
+    /**
+     * Private constructor to hide the implicit one.
+     */
+    private InventoryQuery()
+    {
+        /*
+         * Intentionally left empty.
+         */
+    }
+
+    /**
+     * Get the items of a network matching a filter, in the requested order. The name, count and filter distance of every item are computed once before sorting.
+     *
+     * @param totals         the total amount of every item.
+     * @param filter         the filter on the name, empty for all items.
+     * @param sortDescriptor the order, one of the sort constants of {@link WindowConstants}.
+     * @return the matching items.
+     */
+    @NotNull
+    public static List<ItemStorage> query(@NotNull final CountMap<ItemStorage> totals, @NotNull final String filter, final int sortDescriptor)
+    {
+        final boolean needsName = !filter.isEmpty() || sortDescriptor == ASC_SORT || sortDescriptor == DESC_SORT;
+        final String lowerFilter = filter.toLowerCase(Locale.US);
+        final List<ItemStorage> storages = new ArrayList<>(totals.size());
+        final List<Row> rows = new ArrayList<>(totals.size());
+        totals.forEach((storage, amount) -> {
+            final ItemStack stack = storage.getItemStack();
+            final String name = needsName ? stack.getHoverName().getString() : "";
+            if (filter.isEmpty())
+            {
+                rows.add(new Row(storages.size(), amount, name, 0));
+                storages.add(storage);
+            }
+            else if (stack.getDescriptionId().toLowerCase(Locale.US).contains(lowerFilter) || name.toLowerCase(Locale.US).contains(lowerFilter))
+            {
+                rows.add(new Row(storages.size(), amount, name, StringUtils.getLevenshteinDistance(name, filter)));
+                storages.add(storage);
+            }
+        });
+
+        if (!filter.isEmpty())
+        {
+            rows.sort(Comparator.comparingInt(row -> row.distance));
+        }
+        final Comparator<Row> compareByName = Comparator.comparing(row -> row.name);
+        final Comparator<Row> compareByCount = Comparator.comparingLong(row -> row.count);
+        switch (sortDescriptor)
+        {
+            case ASC_SORT:
+                rows.sort(compareByName);
+                break;
+            case DESC_SORT:
+                rows.sort(compareByName.reversed());
+                break;
+            case COUNT_ASC_SORT:
+                rows.sort(compareByCount);
+                break;
+            case COUNT_DESC_SORT:
+                rows.sort(compareByCount.reversed());
+                break;
+            default:
+                break;
+        }
+
+        final List<ItemStorage> items = new ArrayList<>(rows.size());
+        for (final Row row : rows)
+        {
+            items.add(storages.get(row.index));
+        }
+        return items;
+    }
+
+    /**
+     * The result of a query, kept to answer the following pages of the same query.
+     */
+    public static class Result
+    {
+        /**
+         * Ticks a result is reused even if the content changed, so the pages fetched together come from the same content.
+         */
+        private static final int MIN_AGE = 20;
+
+        /**
+         * Ticks after which a result is forgotten, so results of closed windows and players that left do not pile up.
+         */
+        private static final int MAX_AGE = 20 * 60;
+
+        /**
+         * The id of the query.
+         */
+        private final int queryId;
+
+        /**
+         * The filter on the name.
+         */
+        private final String filter;
+
+        /**
+         * The order of the rows.
+         */
+        private final int sortDescriptor;
+
+        /**
+         * The game time the result was computed.
+         */
+        private final long time;
+
+        /**
+         * The content version of the network the result was computed from.
+         */
+        private final long version;
+
+        /**
+         * The total amount of every item.
+         */
+        private final CountMap<ItemStorage> totals;
+
+        /**
+         * The items, in order.
+         */
+        private final List<ItemStorage> rows;
+
+        /**
+         * Create a new result.
+         *
+         * @param queryId        the id of the query.
+         * @param filter         the filter on the name.
+         * @param sortDescriptor the order of the rows.
+         * @param time           the game time.
+         * @param version        the content version of the network.
+         * @param totals         the total amount of every item.
+         * @param rows           the items, in order.
+         */
+        public Result(
+          final int queryId,
+          @NotNull final String filter,
+          final int sortDescriptor,
+          final long time,
+          final long version,
+          @NotNull final CountMap<ItemStorage> totals,
+          @NotNull final List<ItemStorage> rows)
+        {
+            this.queryId = queryId;
+            this.filter = filter;
+            this.sortDescriptor = sortDescriptor;
+            this.time = time;
+            this.version = version;
+            this.totals = totals;
+            this.rows = rows;
+        }
+
+        /**
+         * Check if the result answers a query on the current content, or was computed too recently to compute it again.
+         *
+         * @param queryId        the id of the query.
+         * @param filter         the filter on the name.
+         * @param sortDescriptor the order of the rows.
+         * @param time           the current game time.
+         * @param version        the current content version of the network.
+         * @return true if so.
+         */
+        public boolean matches(final int queryId, @NotNull final String filter, final int sortDescriptor, final long time, final long version)
+        {
+            return this.queryId == queryId && this.sortDescriptor == sortDescriptor && this.filter.equals(filter)
+                     && (this.version == version || time - this.time < MIN_AGE);
+        }
+
+        /**
+         * Check if the result is too old to be kept.
+         *
+         * @param time the current game time.
+         * @return true if so.
+         */
+        public boolean isExpired(final long time)
+        {
+            return time - this.time >= MAX_AGE;
+        }
+
+        /**
+         * Get the content version of the network the result was computed from.
+         *
+         * @return the version.
+         */
+        public long getVersion()
+        {
+            return version;
+        }
+
+        /**
+         * Get the items.
+         *
+         * @return the items, in order.
+         */
+        @NotNull
+        public List<ItemStorage> getRows()
+        {
+            return rows;
+        }
+
+        /**
+         * Get the total amount of an item.
+         *
+         * @param storage the item.
+         * @return the amount.
+         */
+        public long getCount(@NotNull final ItemStorage storage)
+        {
+            return totals.get(storage);
+        }
+    }
+
+    /**
+     * A row with the keys it is filtered and sorted by.
+     */
+    private static class Row
+    {
+        /**
+         * The index of the row before sorting.
+         */
+        private final int index;
+
+        /**
+         * The total amount.
+         */
+        private final long count;
+
+        /**
+         * The display name, empty if not needed.
+         */
+        private final String name;
+
+        /**
+         * The distance of the name to the filter.
+         */
+        private final int distance;
+
+        /**
+         * Create a new row.
+         *
+         * @param index    the index of the row before sorting.
+         * @param count    the total amount.
+         * @param name     the display name.
+         * @param distance the distance of the name to the filter.
+         */
+        private Row(final int index, final long count, final String name, final int distance)
+        {
+            this.index = index;
+            this.count = count;
+            this.name = name;
+            this.distance = distance;
+        }
+    }
+}
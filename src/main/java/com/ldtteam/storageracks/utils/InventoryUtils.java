@@ -1,5 +1,6 @@
 package com.ldtteam.storageracks.utils;
 
+import com.ldtteam.storageracks.tileentities.AbstractTileEntityRack;
 import net.minecraft.entity.item.ItemEntity;
 import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
@@ -130,6 +131,11 @@ public class InventoryUtils
             return sourceStack;
         }
 
+        if (targetHandler instanceof AbstractTileEntityRack.RackInventory)
+        {
+            return ((AbstractTileEntityRack.RackInventory) targetHandler).insertItemStack(sourceStack, false);
+        }
+
         sourceStack = mergeItemStackIntoNextBestSlotInItemHandlers(sourceStack, targetHandler);
 
         if (ItemStackUtils.isEmpty(sourceStack))
@@ -0,0 +1,119 @@
+package com.ldtteam.storageracks.utils;
+
+import com.ldtteam.storageracks.network.Network;
+import com.ldtteam.storageracks.network.RequestItemTagMessage;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.util.Util;
+import net.minecraft.util.math.BlockPos;
+import net.minecraftforge.client.event.ClientPlayerNetworkEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Client side cache of the full tags of items whose tags were stripped from the sync, requested from the server on first use. Cleared when leaving the server.
+ */
+public final class ItemTagCache
+{
+    /**
+     * Max amount of cached tags.
+     */
+    private static final int MAX_SIZE = 256;
+
+    /**
+     * Milliseconds after which an unanswered request is sent again.
+     */
+    private static final long REQUEST_TIMEOUT = 5000;
+
+    /**
+     * The cached tags by digest, least recently used first.
+     */
+    private static final Map<Long, CompoundNBT> TAGS = new LinkedHashMap<Long, CompoundNBT>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Long, CompoundNBT> eldest)
+        {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    /**
+     * The digests requested from the server without answer yet, with the time of the request.
+     */
+    private static final Map<Long, Long> PENDING = new HashMap<>();
+
+    /**
+     * Private constructor to hide the implicit one.
+     */
+    private ItemTagCache()
+    {
+        /*
+         * Intentionally left empty.
+         */
+    }
+
+    /**
+     * Get a single item of a synced stack for display, with its full tag if it is known. Unknown tags are requested from the server.
+     *
+     * @param pos   the pos of the rack or controller holding the item.
+     * @param stack the synced stack.
+     * @return the stack to display.
+     */
+    @NotNull
+    public static ItemStack getDisplayStack(@NotNull final BlockPos pos, @NotNull final ItemStack stack)
+    {
+        final ItemStack result = new ItemStack(stack.getItem(), 1);
+        if (!SyncedStackUtils.isStripped(stack))
+        {
+            result.setTag(stack.getTag());
+            return result;
+        }
+
+        final long digest = SyncedStackUtils.getDigest(stack);
+        final CompoundNBT tag = TAGS.get(digest);
+        if (tag != null)
+        {
+            result.setTag(tag);
+            return result;
+        }
+
+        final long now = Util.getMillis();
+        final Long requested = PENDING.get(digest);
+        if (requested == null || now - requested > REQUEST_TIMEOUT)
+        {
+            // The server drops requests for items that are gone, ask again later instead of waiting forever.
+            PENDING.put(digest, now);
+            Network.getNetwork().sendToServer(new RequestItemTagMessage(pos, digest));
+        }
+        result.setTag(stack.getTag());
+        return result;
+    }
+
+    /**
+     * Store a tag received from the server.
+     *
+     * @param digest the digest of the tag.
+     * @param tag    the full tag.
+     */
+    public static void put(final long digest, @NotNull final CompoundNBT tag)
+    {
+        PENDING.remove(digest);
+        TAGS.put(digest, tag);
+    }
+
+    /**
+     * Forget all tags and requests when leaving a server, the digests are only valid there.
+     *
+     * @param event the event.
+     */
+    @SubscribeEvent
+    public static void onLoggedOut(final ClientPlayerNetworkEvent.LoggedOutEvent event)
+    {
+        TAGS.clear();
+        PENDING.clear();
+    }
+}
@@ -20,6 +20,11 @@ public final class NbtTagConstants
      */
     public static final String TAG_SORT = "sort";
 
+    /**
+     * Tag to store the sorted insert flag.
+     */
+    public static final String TAG_SORTED_INSERT = "sortedInsert";
+
     /**
      * Tag to store the inventory to nbt.
      */
@@ -35,6 +40,26 @@ public final class NbtTagConstants
      */
     public static final String TAG_EMPTY = "empty";
 
+    /**
+     * Tag to store the content summary sent to the clients.
+     */
+    public static final String TAG_SUMMARY = "summary";
+
+    /**
+     * Tag to store the amount of an item in the content summary.
+     */
+    public static final String TAG_COUNT = "count";
+
+    /**
+     * Tag to store the version of the content summary.
+     */
+    public static final String TAG_VERSION = "version";
+
+    /**
+     * Tag to store the digest of an item tag stripped from the client sync.
+     */
+    public static final String TAG_DIGEST = "storageracks:digest";
+
     /**
      * Private constructor to hide the implicit one.
      */
@@ -0,0 +1,74 @@
+package com.ldtteam.storageracks.utils;
+
+import net.minecraft.item.ItemStack;
+import net.minecraftforge.items.IItemHandlerModifiable;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Journal of slot writes to an item handler which can be rolled back. It keeps the replaced stacks by reference, which is enough as the handlers replace stacks on
+ * write instead of modifying them.
+ */
+public class SlotJournal
+{
+    /**
+     * The written slots, in order.
+     */
+    private final List<Integer> slots = new ArrayList<>();
+
+    /**
+     * The stacks the slots held before the write.
+     */
+    private final List<ItemStack> previous = new ArrayList<>();
+
+    /**
+     * The handler the journal belongs to.
+     */
+    private final IItemHandlerModifiable inv;
+
+    /**
+     * Create a new journal.
+     *
+     * @param inv the handler written to.
+     */
+    public SlotJournal(@NotNull final IItemHandlerModifiable inv)
+    {
+        this.inv = inv;
+    }
+
+    /**
+     * Set the stack of a slot, remembering the stack it held before.
+     *
+     * @param slot  the slot.
+     * @param stack the new stack.
+     */
+    public void setStackInSlot(final int slot, @NotNull final ItemStack stack)
+    {
+        slots.add(slot);
+        previous.add(inv.getStackInSlot(slot));
+        inv.setStackInSlot(slot, stack);
+    }
+
+    /**
+     * Restore all written slots, in reverse order, and clear the journal.
+     */
+    public void rollback()
+    {
+        for (int i = slots.size() - 1; i >= 0; i--)
+        {
+            inv.setStackInSlot(slots.get(i), previous.get(i));
+        }
+        clear();
+    }
+
+    /**
+     * Forget all written slots.
+     */
+    public void clear()
+    {
+        slots.clear();
+        previous.clear();
+    }
+}
@@ -0,0 +1,371 @@
+package com.ldtteam.storageracks.utils;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Computes the sorted layout of a network of racks without touching the world. Entries are ordered by creative tab, item id and damage, are filled into the slots one
+ * after another, and the next creative tab jumps to the beginning of the next rack if there is enough room left.
+ */
+public final class SortPlanner
+{
+    /**
+     * Jump to the next rack anyways if the remaining space is this many times larger than the required one.
+     */
+    private static final int MAX_JUMP_FACTOR = 4;
+
+    /**
+     * Bits of the packed sort key used for the damage value, the lowest part.
+     */
+    private static final int DAMAGE_BITS = 28;
+
+    /**
+     * Bits of the packed sort key used for the registry id, the middle part.
+     */
+    private static final int ID_BITS = 24;
+
+    /**
+     * Bits of the packed sort key used for the creative tab, the highest part.
+     */
+    private static final int TAB_BITS = 12;
+
+    /**
+     * Bits sorted per radix pass.
+     */
+    private static final int RADIX_BITS = 8;
+
+    /**
+     * Private constructor to hide implicit one.
+     */
+    private SortPlanner()
+    {
+        /*
+         * Intentionally left empty.
+         */
+    }
+
+    /**
+     * One distinct item of the network to place.
+     */
+    public static class Entry
+    {
+        /**
+         * The total amount of the item.
+         */
+        private final long count;
+
+        /**
+         * The amount of the item that fits into one slot.
+         */
+        private final int slotCapacity;
+
+        /**
+         * The primary creative tab index.
+         */
+        private final int tab;
+
+        /**
+         * The registry id of the item.
+         */
+        private final int id;
+
+        /**
+         * The damage value.
+         */
+        private final int damage;
+
+        /**
+         * Create a new entry.
+         *
+         * @param count        the total amount of the item.
+         * @param slotCapacity the amount of the item that fits into one slot.
+         * @param tab          the primary creative tab index.
+         * @param id           the registry id of the item.
+         * @param damage       the damage value.
+         */
+        public Entry(final long count, final int slotCapacity, final int tab, final int id, final int damage)
+        {
+            this.count = count;
+            this.slotCapacity = Math.max(1, slotCapacity);
+            this.tab = tab;
+            this.id = id;
+            this.damage = damage;
+        }
+
+        /**
+         * Get the total amount of the item.
+         *
+         * @return the amount.
+         */
+        public long getCount()
+        {
+            return count;
+        }
+
+        /**
+         * Get the amount of the item that fits into one slot.
+         *
+         * @return the amount.
+         */
+        public int getSlotCapacity()
+        {
+            return slotCapacity;
+        }
+
+        /**
+         * Get the primary creative tab index.
+         *
+         * @return the index.
+         */
+        public int getTab()
+        {
+            return tab;
+        }
+
+        /**
+         * Get the registry id of the item.
+         *
+         * @return the id.
+         */
+        public int getId()
+        {
+            return id;
+        }
+
+        /**
+         * Get the damage value.
+         *
+         * @return the damage.
+         */
+        public int getDamage()
+        {
+            return damage;
+        }
+
+        /**
+         * Get the amount of slots the entry takes up.
+         *
+         * @return the amount of slots.
+         */
+        public int getRequiredSlots()
+        {
+            return (int) ((count + slotCapacity - 1) / slotCapacity);
+        }
+    }
+
+    /**
+     * The target layout over all slots of the network, in the order of the racks.
+     */
+    public static class Plan
+    {
+        /**
+         * The index of the entry per slot, -1 for empty slots.
+         */
+        private final int[] slotEntries;
+
+        /**
+         * The amount per slot.
+         */
+        private final int[] slotCounts;
+
+        /**
+         * Create a new empty plan.
+         *
+         * @param slots the total amount of slots.
+         */
+        private Plan(final int slots)
+        {
+            this.slotEntries = new int[slots];
+            this.slotCounts = new int[slots];
+            Arrays.fill(slotEntries, -1);
+        }
+
+        /**
+         * Get the total amount of slots.
+         *
+         * @return the amount.
+         */
+        public int getSlots()
+        {
+            return slotEntries.length;
+        }
+
+        /**
+         * Get the entry planned for a slot.
+         *
+         * @param slot the slot.
+         * @return the index of the entry in the planned list, -1 if the slot stays empty.
+         */
+        public int getEntry(final int slot)
+        {
+            return slotEntries[slot];
+        }
+
+        /**
+         * Get the amount planned for a slot.
+         *
+         * @param slot the slot.
+         * @return the amount, 0 if the slot stays empty.
+         */
+        public int getCount(final int slot)
+        {
+            return slotCounts[slot];
+        }
+    }
+
+    /**
+     * Plan the sorted layout of a network.
+     *
+     * @param entries   the distinct items of the network.
+     * @param rackSlots the amount of slots of every rack, in order.
+     * @return the plan, or null if the entries do not fit into the racks.
+     */
+    @Nullable
+    public static Plan plan(@NotNull final List<Entry> entries, @NotNull final int[] rackSlots)
+    {
+        final int[] rackEnds = new int[Arrays.stream(rackSlots).sum()];
+        int end = 0;
+        for (final int slots : rackSlots)
+        {
+            Arrays.fill(rackEnds, end, end + slots, end + slots);
+            end += slots;
+        }
+        final int totalSlots = rackEnds.length;
+
+        final CountMap<Integer> tabSlots = new CountMap<>();
+        int totalRequired = 0;
+        for (final Entry entry : entries)
+        {
+            final int required = entry.getRequiredSlots();
+            totalRequired += required;
+            tabSlots.addTo(entry.getTab(), required);
+        }
+
+        if (totalRequired > totalSlots)
+        {
+            return null;
+        }
+
+        final int[] order = order(entries);
+
+        final Plan plan = new Plan(totalSlots);
+        int requiredSlots = totalRequired;
+        int currentSlot = 0;
+        for (final int index : order)
+        {
+            final Entry entry = entries.get(index);
+            int slotLimit = 0;
+            long left = entry.getCount();
+            while (left > 0)
+            {
+                final int count = (int) Math.min(left, entry.getSlotCapacity());
+                slotLimit = rackEnds[currentSlot];
+                plan.slotEntries[currentSlot] = index;
+                plan.slotCounts[currentSlot] = count;
+                currentSlot++;
+                left -= count;
+                requiredSlots--;
+                tabSlots.addTo(entry.getTab(), -1);
+            }
+
+            if (tabSlots.get(entry.getTab()) <= 0 && requiredSlots > 0 && (totalSlots - slotLimit) >= requiredSlots)
+            {
+                final double usageFactor = (double) totalSlots / (totalRequired - requiredSlots);
+                final double theoreticalJumpFactor = (double) (totalSlots - slotLimit) / requiredSlots;
+
+                if (theoreticalJumpFactor <= usageFactor || theoreticalJumpFactor > MAX_JUMP_FACTOR)
+                {
+                    currentSlot = slotLimit;
+                }
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Order entries by creative tab, registry id and damage value. Entries with equal keys keep their order.
+     *
+     * @param entries the entries.
+     * @return the indices of the entries in sorted order.
+     */
+    @NotNull
+    public static int[] order(@NotNull final List<Entry> entries)
+    {
+        final int size = entries.size();
+        long[] keys = new long[size];
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++)
+        {
+            keys[i] = getSortKey(entries.get(i));
+            order[i] = i;
+        }
+
+        // Least significant digit radix sort over the unsigned packed keys, skipping passes where all keys share the digit.
+        long[] tempKeys = new long[size];
+        int[] tempOrder = new int[size];
+        final int buckets = 1 << RADIX_BITS;
+        final int[] offsets = new int[buckets + 1];
+        for (int shift = 0; shift < Long.SIZE; shift += RADIX_BITS)
+        {
+            Arrays.fill(offsets, 0);
+            for (int i = 0; i < size; i++)
+            {
+                offsets[(int) ((keys[i] >>> shift) & (buckets - 1)) + 1]++;
+            }
+
+            if (size == 0 || offsets[(int) ((keys[0] >>> shift) & (buckets - 1)) + 1] == size)
+            {
+                continue;
+            }
+
+            for (int i = 0; i < buckets; i++)
+            {
+                offsets[i + 1] += offsets[i];
+            }
+
+            for (int i = 0; i < size; i++)
+            {
+                final int target = offsets[(int) ((keys[i] >>> shift) & (buckets - 1))]++;
+                tempKeys[target] = keys[i];
+                tempOrder[target] = order[i];
+            }
+
+            final long[] swapKeys = keys;
+            keys = tempKeys;
+            tempKeys = swapKeys;
+            final int[] swapOrder = order;
+            order = tempOrder;
+            tempOrder = swapOrder;
+        }
+        return order;
+    }
+
+    /**
+     * Pack creative tab, registry id and damage value of an entry into one key which sorts like comparing them one after another. Values out of range are clamped.
+     *
+     * @param entry the entry.
+     * @return the key, to be compared unsigned.
+     */
+    public static long getSortKey(@NotNull final Entry entry)
+    {
+        final long tab = clamp(entry.getTab(), TAB_BITS);
+        final long id = clamp(entry.getId(), ID_BITS);
+        final long damage = clamp(entry.getDamage(), DAMAGE_BITS);
+        return (tab << (ID_BITS + DAMAGE_BITS)) | (id << DAMAGE_BITS) | damage;
+    }
+
+    /**
+     * Clamp a value into the range of an unsigned number of some bits.
+     *
+     * @param value the value.
+     * @param bits  the amount of bits.
+     * @return the clamped value.
+     */
+    private static long clamp(final int value, final int bits)
+    {
+        return Math.min(Math.max(value, 0), (1L << bits) - 1);
+    }
+}
@@ -0,0 +1,132 @@
+package com.ldtteam.storageracks.utils;
+
+import com.ldtteam.storageracks.ItemStorage;
+import com.ldtteam.storageracks.inv.CombinedItemHandler;
+import net.minecraft.item.ItemStack;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable copy of the content of a network, taken on the server thread so the sorted layout can be planned on another thread.
+ */
+public final class SortSnapshot
+{
+    /**
+     * The distinct items, holding copies of the stacks.
+     */
+    private final List<ItemStorage> keys;
+
+    /**
+     * The total amount per item.
+     */
+    private final long[] counts;
+
+    /**
+     * The amount of slots per rack, in order.
+     */
+    private final int[] rackSlots;
+
+    /**
+     * The item limit of a slot.
+     */
+    private final int slotLimit;
+
+    /**
+     * Create a new snapshot.
+     *
+     * @param keys      the distinct items.
+     * @param counts    the total amount per item.
+     * @param rackSlots the amount of slots per rack.
+     * @param slotLimit the item limit of a slot.
+     */
+    private SortSnapshot(final List<ItemStorage> keys, final long[] counts, final int[] rackSlots, final int slotLimit)
+    {
+        this.keys = Collections.unmodifiableList(keys);
+        this.counts = counts;
+        this.rackSlots = rackSlots;
+        this.slotLimit = slotLimit;
+    }
+
+    /**
+     * Take a snapshot of a combined item handler. Each distinct item is copied once.
+     *
+     * @param inv the item handler.
+     * @return the snapshot.
+     */
+    @NotNull
+    public static SortSnapshot of(@NotNull final CombinedItemHandler inv)
+    {
+        final CountMap<ItemStorage> map = new CountMap<>();
+        for (int i = 0; i < inv.getSlots(); i++)
+        {
+            final ItemStack stack = inv.getStackInSlot(i);
+            if (!ItemStackUtils.isEmpty(stack))
+            {
+                final ItemStorage key = new ItemStorage(stack);
+                map.addTo(map.containsKey(key) ? key : new ItemStorage(stack.copy()), stack.getCount());
+            }
+        }
+
+        final List<ItemStorage> keys = new ArrayList<>(map.size());
+        final long[] counts = new long[map.size()];
+        map.forEach((storage, amount) -> {
+            counts[keys.size()] = amount;
+            keys.add(storage);
+        });
+
+        final List<Integer> slots = new ArrayList<>();
+        int start = 0;
+        while (start < inv.getSlots())
+        {
+            final int end = inv.getLastIndex(start);
+            slots.add(end - start);
+            start = end;
+        }
+
+        return new SortSnapshot(keys, counts, slots.stream().mapToInt(Integer::intValue).toArray(), inv.getSlots() > 0 ? inv.getSlotLimit(0) : 0);
+    }
+
+    /**
+     * Get the distinct items.
+     *
+     * @return the items, their stacks must not be modified.
+     */
+    public List<ItemStorage> getKeys()
+    {
+        return keys;
+    }
+
+    /**
+     * Get the total amount of an item.
+     *
+     * @param index the index of the item.
+     * @return the amount.
+     */
+    public long getCount(final int index)
+    {
+        return counts[index];
+    }
+
+    /**
+     * Get the amount of slots per rack.
+     *
+     * @return a copy of the amounts, in order.
+     */
+    public int[] getRackSlots()
+    {
+        return rackSlots.clone();
+    }
+
+    /**
+     * Get the item limit of a slot.
+     *
+     * @return the limit.
+     */
+    public int getSlotLimit()
+    {
+        return slotLimit;
+    }
+}
@@ -4,14 +4,13 @@ import com.ldtteam.storageracks.inv.CombinedItemHandler;
 import com.ldtteam.storageracks.ItemStorage;
 import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
-import net.minecraft.nbt.CompoundNBT;
-import net.minecraft.util.Tuple;
 import net.minecraftforge.registries.ForgeRegistries;
 import net.minecraftforge.registries.ForgeRegistry;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Utilities for sorting item handlers.
@@ -30,123 +29,115 @@ public final class SortingUtils
 
     /**
      * Sort a combined item handler by certain conditions. Group into creative tabs if possible.
+     * The layout is planned from a snapshot of the content first, then only the slots whose content differs from the plan are written.
      *
      * @param inv the item handler to sort.
      */
     public static void sort(final CombinedItemHandler inv)
     {
-        final CompoundNBT backup = inv.serializeNBT();
-        final AtomicInteger runCount = new AtomicInteger(0);
-
-        try
+        if (inv == null)
         {
-            final Map<ItemStorage, Integer> map = new HashMap<>();
-            if (inv != null)
-            {
-                for (int i = 0; i < inv.getSlots(); i++)
-                {
-                    if (ItemStackUtils.isEmpty(inv.getStackInSlot(i)))
-                    {
-                        continue;
-                    }
-                    final ItemStorage storage = new ItemStorage(inv.extractItem(i, 64, false));
-                    int amount = storage.getAmount();
-                    if (map.containsKey(storage))
-                    {
-                        amount += map.remove(storage);
-                    }
-                    map.put(storage, amount);
-                }
-
-                final Tuple<AtomicInteger, Map<Integer, Integer>> tuple = SortingUtils.calcRequiredSlots(map);
-                final double totalSlots = inv.getSlots();
-                final int totalReq = tuple.getA().get();
-                map.entrySet().stream().sorted(SortingUtils::compare)
-                  .forEach(entry -> SortingUtils.pushIntoInv(runCount, entry, inv, tuple.getA(), totalSlots, totalReq, tuple.getB()));
-            }
+            return;
         }
-        catch (Exception e)
+
+        final ItemStack[] layout = planLayout(inv);
+        if (layout == null)
         {
-            inv.deserializeNBT(backup);
-            Log.getLogger().warn("Minecolonies warehouse sorting had an error, report it to the mod author.", e);
+            return;
         }
-    }
-
-    /**
-     * Pushes a item storage to an inventory following certain rules.
-     *
-     * @param currentSlot      the starting slot to start pushing.
-     * @param entry            the map entry with storage and size.
-     * @param inv              the inventory to push it to.
-     * @param requiredSlots    the required slots in total to be pushed to (counting down).
-     * @param totalSlots       the total available slots.
-     * @param totalRequirement the required slots in total to be pushed to.
-     * @param creativeTabs     the creative tabs information for the items.
-     */
-    private static void pushIntoInv(
-      final AtomicInteger currentSlot,
-      final Map.Entry<ItemStorage, Integer> entry,
-      final CombinedItemHandler inv,
-      final AtomicInteger requiredSlots,
-      final double totalSlots, final double totalRequirement, final Map<Integer, Integer> creativeTabs)
-    {
-        final int creativeTabId = entry.getKey().getPrimaryCreativeTabIndex();
 
-        int slotLimit = 0;
-        final ItemStack stack = entry.getKey().getItemStack();
-        int tempSize = entry.getValue();
-        while (tempSize > 0)
+        final List<Integer> changedSlots = new ArrayList<>();
+        for (int slot = 0; slot < layout.length; slot++)
         {
-            final ItemStack tempStack = stack.copy();
-            tempStack.setCount(Math.min(tempSize, tempStack.getMaxStackSize()));
-            slotLimit = inv.getLastIndex(currentSlot.get());
-            while (!inv.insertItem(currentSlot.getAndIncrement(), tempStack, false).isEmpty())
+            if (!ItemStack.matches(inv.getStackInSlot(slot), layout[slot]))
             {
-                Log.getLogger().error("Trying to dump into same slot again!", new Exception());
+                changedSlots.add(slot);
             }
-            tempSize -= tempStack.getCount();
-            requiredSlots.decrementAndGet();
-            creativeTabs.put(creativeTabId, creativeTabs.get(creativeTabId) - 1);
         }
 
-        if (creativeTabs.get(creativeTabId) <= 0 && (totalSlots - slotLimit) >= requiredSlots.get())
+        if (changedSlots.isEmpty())
         {
-            final double dumpedSlots = (totalRequirement - requiredSlots.get());
-            final double usageFactor = totalSlots / dumpedSlots;
-            final double theoreticalJumpFactor = (totalSlots - slotLimit) / requiredSlots.get();
+            return;
+        }
 
-            if (theoreticalJumpFactor <= usageFactor || theoreticalJumpFactor > 4)
+        final SlotJournal journal = new SlotJournal(inv);
+        try
+        {
+            for (final int slot : changedSlots)
             {
-                currentSlot.set(slotLimit);
+                journal.setStackInSlot(slot, layout[slot]);
             }
         }
+        catch (Exception e)
+        {
+            journal.rollback();
+            Log.getLogger().warn("Minecolonies warehouse sorting had an error, report it to the mod author.", e);
+        }
     }
 
     /**
-     * Compared to itemStorage entries. Based on: - Creative tab - Id - Damage value
+     * Plan the sorted layout of a combined item handler from a snapshot of its content, without modifying it.
      *
-     * @param t1 the first itemStorage entry.
-     * @param t2 the second itemStorage entry.
-     * @return an integer which describes the difference.
+     * @param inv the item handler to plan for.
+     * @return the new stack of every slot, empty stacks for empty slots, or null if the content does not fit.
      */
-    private static int compare(final Map.Entry<ItemStorage, Integer> t1, final Map.Entry<ItemStorage, Integer> t2)
+    @Nullable
+    public static ItemStack[] planLayout(@NotNull final CombinedItemHandler inv)
     {
-        final int creativeTabId1 = t1.getKey().getPrimaryCreativeTabIndex();
-        final int creativeTabId2 = t2.getKey().getPrimaryCreativeTabIndex();
+        final SortSnapshot snapshot = SortSnapshot.of(inv);
+        final SortPlanner.Plan plan = plan(snapshot);
+        return plan == null ? null : toLayout(snapshot, plan);
+    }
 
-        if (creativeTabId1 != creativeTabId2)
+    /**
+     * Plan the sorted layout of a snapshot. Neither touches the world nor creates stacks, so it may run on any thread.
+     *
+     * @param snapshot the snapshot of the content.
+     * @return the plan referring to the items of the snapshot, or null if the content does not fit.
+     */
+    @Nullable
+    public static SortPlanner.Plan plan(@NotNull final SortSnapshot snapshot)
+    {
+        final List<ItemStorage> keys = snapshot.getKeys();
+        final List<SortPlanner.Entry> entries = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++)
         {
-            return creativeTabId1 - creativeTabId2;
+            final ItemStorage storage = keys.get(i);
+            entries.add(new SortPlanner.Entry(snapshot.getCount(i),
+              Math.min(snapshot.getSlotLimit(), storage.getItemStack().getMaxStackSize()),
+              storage.getPrimaryCreativeTabIndex(),
+              getId(storage.getItem()),
+              storage.getDamageValueValue()));
         }
 
-        final int id1 = getId(t1.getKey().getItem());
-        final int id2 = getId(t2.getKey().getItem());
+        return SortPlanner.plan(entries, snapshot.getRackSlots());
+    }
 
-        if (id1 == id2)
+    /**
+     * Create the stacks of a planned layout.
+     *
+     * @param snapshot the snapshot the plan was made from.
+     * @param plan     the plan.
+     * @return the new stack of every slot, empty stacks for empty slots.
+     */
+    @NotNull
+    public static ItemStack[] toLayout(@NotNull final SortSnapshot snapshot, @NotNull final SortPlanner.Plan plan)
+    {
+        final ItemStack[] layout = new ItemStack[plan.getSlots()];
+        for (int slot = 0; slot < layout.length; slot++)
         {
-            return t1.getKey().getDamageValueValue() - t2.getKey().getDamageValueValue();
+            final int entry = plan.getEntry(slot);
+            if (entry < 0)
+            {
+                layout[slot] = ItemStack.EMPTY;
+            }
+            else
+            {
+                layout[slot] = snapshot.getKeys().get(entry).getItemStack().copy();
+                layout[slot].setCount(plan.getCount(slot));
+            }
         }
-        return id1 - id2;
+        return layout;
     }
 
     /**
@@ -159,24 +150,4 @@ public final class SortingUtils
     {
         return ((ForgeRegistry<Item>) ForgeRegistries.ITEMS).getID(item);
     }
-
-    /**
-     * Calculate how many slots in total will be required for a map of item storages. Also calculate and return how many creativeTabs are involved and how many items per tab.
-     *
-     * @param map the map of itemStorages with amount.
-     * @return a tuple containing the required information.
-     */
-    private static Tuple<AtomicInteger, Map<Integer, Integer>> calcRequiredSlots(final Map<ItemStorage, Integer> map)
-    {
-        final Map<Integer, Integer> creativeTabs = new HashMap<>();
-        int sum = 0;
-        for (final Map.Entry<ItemStorage, Integer> entry : map.entrySet())
-        {
-            sum += Math.ceil((double) entry.getValue() / entry.getKey().getItemStack().getMaxStackSize());
-            final int index = entry.getKey().getPrimaryCreativeTabIndex();
-            creativeTabs.put(index, creativeTabs.getOrDefault(index, 0) + (int) Math.ceil((double) entry.getValue() / entry.getKey().getItemStack().getMaxStackSize()));
-        }
-
-        return new Tuple<>(new AtomicInteger(sum), creativeTabs);
-    }
 }
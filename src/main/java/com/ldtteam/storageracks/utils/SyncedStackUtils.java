@@ -0,0 +1,222 @@
+package com.ldtteam.storageracks.utils;
+
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingOutputStream;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import com.ldtteam.storageracks.ItemStorage;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.CompressedStreamTools;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.ldtteam.storageracks.utils.NbtTagConstants.TAG_DIGEST;
+
+/**
+ * Encoding of stacks synced to the clients for display. Tags above a size limit are replaced by their digest and the fields needed for rendering, the client can ask
+ * for the full tag by digest when it needs it.
+ */
+public final class SyncedStackUtils
+{
+    /**
+     * Largest tag size in bytes which is synced as it is.
+     */
+    private static final int MAX_SYNCED_TAG_SIZE = 1024;
+
+    /**
+     * Tag of the display compound.
+     */
+    private static final String TAG_DISPLAY = "display";
+
+    /**
+     * Tag of the custom name in the display compound.
+     */
+    private static final String TAG_NAME = "Name";
+
+    /**
+     * Tag of the damage value.
+     */
+    private static final String TAG_DAMAGE = "Damage";
+
+    /**
+     * Max amount of remembered stripped items.
+     */
+    private static final int MAX_STRIPPED = 4096;
+
+    /**
+     * The items whose tags were stripped, by digest, least recently synced first. Server side only.
+     */
+    private static final Map<Long, ItemStorage> STRIPPED = new LinkedHashMap<Long, ItemStorage>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Long, ItemStorage> eldest)
+        {
+            return size() > MAX_STRIPPED;
+        }
+    };
+
+    /**
+     * Private constructor to hide the implicit one.
+     */
+    private SyncedStackUtils()
+    {
+        /*
+         * Intentionally left empty.
+         */
+    }
+
+    /**
+     * Get the stack to sync to the clients for display, cached by the item. The item of a stripped tag is remembered by its digest, so the clients can request it.
+     *
+     * @param key the item.
+     * @return the stack to sync, must not be modified.
+     */
+    @NotNull
+    public static ItemStack toClient(@NotNull final ItemStorage key)
+    {
+        final ItemStack synced = key.getSyncedStack();
+        if (isStripped(synced))
+        {
+            STRIPPED.put(getDigest(synced), key);
+        }
+        return synced;
+    }
+
+    /**
+     * Encode a stack for display on the clients: a single item with the share tag, or with a digest of it if it is too large.
+     *
+     * @param stack the stack.
+     * @return the stack to sync.
+     */
+    @NotNull
+    public static ItemStack encode(@NotNull final ItemStack stack)
+    {
+        final ItemStack result = new ItemStack(stack.getItem(), 1);
+        final CompoundNBT shareTag = stack.getItem().getShareTag(stack);
+        if (shareTag == null)
+        {
+            return result;
+        }
+
+        final Digest digest = digest(shareTag);
+        if (digest.size <= MAX_SYNCED_TAG_SIZE)
+        {
+            result.setTag(shareTag.copy());
+            return result;
+        }
+
+        final CompoundNBT stripped = new CompoundNBT();
+        final CompoundNBT display = shareTag.getCompound(TAG_DISPLAY);
+        if (display.contains(TAG_NAME))
+        {
+            final CompoundNBT strippedDisplay = new CompoundNBT();
+            strippedDisplay.putString(TAG_NAME, display.getString(TAG_NAME));
+            stripped.put(TAG_DISPLAY, strippedDisplay);
+        }
+        if (shareTag.contains(TAG_DAMAGE))
+        {
+            stripped.putInt(TAG_DAMAGE, shareTag.getInt(TAG_DAMAGE));
+        }
+        stripped.putLong(TAG_DIGEST, digest.value);
+        result.setTag(stripped);
+        return result;
+    }
+
+    /**
+     * Check if the tag of a synced stack was replaced by its digest.
+     *
+     * @param stack the synced stack.
+     * @return true if so.
+     */
+    public static boolean isStripped(@NotNull final ItemStack stack)
+    {
+        return stack.getTag() != null && stack.getTag().contains(TAG_DIGEST);
+    }
+
+    /**
+     * Get the digest of the tag of a synced stack.
+     *
+     * @param stack the synced stack.
+     * @return the digest, 0 if the tag was not stripped.
+     */
+    public static long getDigest(@NotNull final ItemStack stack)
+    {
+        return isStripped(stack) ? stack.getTag().getLong(TAG_DIGEST) : 0;
+    }
+
+    /**
+     * Get the item whose tag was stripped to a digest.
+     *
+     * @param digest the digest.
+     * @return the item, or null if it is not known.
+     */
+    @Nullable
+    public static ItemStorage getStripped(final long digest)
+    {
+        return STRIPPED.get(digest);
+    }
+
+    /**
+     * Forget all stripped items, used when the server stops.
+     */
+    public static void clear()
+    {
+        STRIPPED.clear();
+    }
+
+    /**
+     * Measure and hash a tag in its serialized form.
+     *
+     * @param tag the tag.
+     * @return the size and digest.
+     */
+    private static Digest digest(final CompoundNBT tag)
+    {
+        final HashingOutputStream hashing = new HashingOutputStream(Hashing.murmur3_128(), ByteStreams.nullOutputStream());
+        final CountingOutputStream counting = new CountingOutputStream(hashing);
+        try
+        {
+            CompressedStreamTools.write(tag, new DataOutputStream(counting));
+        }
+        catch (final IOException e)
+        {
+            // Nothing is written anywhere, this does not happen.
+            throw new IllegalStateException(e);
+        }
+        return new Digest(counting.getCount(), hashing.hash().asLong());
+    }
+
+    /**
+     * Serialized size and hash of a tag.
+     */
+    private static class Digest
+    {
+        /**
+         * The size in bytes.
+         */
+        private final long size;
+
+        /**
+         * The hash.
+         */
+        private final long value;
+
+        /**
+         * Create a new digest.
+         *
+         * @param size  the size in bytes.
+         * @param value the hash.
+         */
+        private Digest(final long size, final long value)
+        {
+            this.size = size;
+            this.value = value;
+        }
+    }
+}
@@ -52,6 +52,7 @@ public final class WindowConstants
     public static final String LOCATE = "locate";
     public static final String SORT = "sort";
     public static final String INSERT = "insert";
+    public static final String SORTED_INSERT = "sortedinsert";
 
     /**
      * Private constructor to hide implicit public one.
@@ -50,4 +50,18 @@ public class WorldUtil
             world.sendBlockUpdated(pos, state, state, 3);
         }
     }
+
+    /**
+     * Mark a chunk at a position unsaved if loaded, without syncing the block to the clients.
+     *
+     * @param world the world to mark it unsaved in.
+     * @param pos   the position within the chunk.
+     */
+    public static void markChunkUnsaved(final World world, final BlockPos pos)
+    {
+        if (WorldUtil.isBlockLoaded(world, pos))
+        {
+            world.getChunk(pos.getX() >> 4, pos.getZ() >> 4).markUnsaved();
+        }
+    }
 }
@@ -0,0 +1,101 @@
+package com.ldtteam.storageracks.tileentities;
+
+import com.ldtteam.storageracks.ItemStorage;
+import com.ldtteam.storageracks.utils.CountMap;
+import net.minecraft.item.ItemStack;
+import net.minecraft.item.Items;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.registry.Bootstrap;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the insertion routing index of a controller network.
+ */
+public class NetworkIndexTest
+{
+    /**
+     * The first rack.
+     */
+    private static final BlockPos RACK_A = new BlockPos(1, 64, 0);
+
+    /**
+     * The second rack.
+     */
+    private static final BlockPos RACK_B = new BlockPos(2, 64, 0);
+
+    @BeforeClass
+    public static void bootstrap()
+    {
+        Bootstrap.bootStrap();
+    }
+
+    @Test
+    public void racksWithAnItemFollowTheUpdates()
+    {
+        final NetworkIndex index = new NetworkIndex();
+        final ItemStack dirt = new ItemStack(Items.DIRT);
+        final ItemStorage key = new ItemStorage(dirt.copy());
+        index.update(RACK_A, key, 10);
+        index.update(RACK_B, key, 5);
+
+        final CountMap<BlockPos> racks = index.getRacksWith(dirt);
+        assertEquals(10, racks.get(RACK_A));
+        assertEquals(5, racks.get(RACK_B));
+
+        index.update(RACK_A, key, -10);
+        assertFalse(index.getRacksWith(dirt).containsKey(RACK_A));
+        assertEquals(5, index.getRacksWith(dirt).get(RACK_B));
+
+        index.update(RACK_B, key, -5);
+        assertTrue(index.getRacksWith(dirt).isEmpty());
+        assertTrue(index.getTotals().isEmpty());
+    }
+
+    @Test
+    public void similarRacksShareTheCreativeTab()
+    {
+        final NetworkIndex index = new NetworkIndex();
+        index.update(RACK_A, new ItemStorage(new ItemStack(Items.DIRT)), 3);
+        index.update(RACK_B, new ItemStorage(new ItemStack(Items.DIAMOND)), 2);
+
+        // Stone is in the same creative tab as dirt, but nothing holds it.
+        final ItemStack stone = new ItemStack(Items.STONE);
+        assertTrue(index.getRacksWith(stone).isEmpty());
+        assertEquals(3, index.getRacksWithSimilar(stone).get(RACK_A));
+        assertFalse(index.getRacksWithSimilar(stone).containsKey(RACK_B));
+
+        index.update(RACK_A, new ItemStorage(new ItemStack(Items.DIRT)), -3);
+        assertTrue(index.getRacksWithSimilar(stone).isEmpty());
+    }
+
+    @Test
+    public void removingAMissingItemIsIgnored()
+    {
+        final NetworkIndex index = new NetworkIndex();
+        index.update(RACK_A, new ItemStorage(new ItemStack(Items.DIRT)), -4);
+
+        assertTrue(index.getRacksWith(new ItemStack(Items.DIRT)).isEmpty());
+        assertTrue(index.getRacksWithSimilar(new ItemStack(Items.DIRT)).isEmpty());
+    }
+
+    @Test
+    public void totalsSumAllRacks()
+    {
+        final NetworkIndex index = new NetworkIndex();
+        final ItemStorage dirt = new ItemStorage(new ItemStack(Items.DIRT));
+        final ItemStorage diamond = new ItemStorage(new ItemStack(Items.DIAMOND));
+        index.update(RACK_A, dirt, 10);
+        index.update(RACK_B, dirt, 7);
+        index.update(RACK_B, diamond, 1);
+
+        final CountMap<ItemStorage> totals = index.getTotals();
+        assertEquals(2, totals.size());
+        assertEquals(17, totals.get(dirt));
+        assertEquals(1, totals.get(diamond));
+    }
+}
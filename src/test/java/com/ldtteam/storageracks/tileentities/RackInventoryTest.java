@@ -0,0 +1,130 @@
+package com.ldtteam.storageracks.tileentities;
+
+import com.ldtteam.storageracks.utils.SlotJournal;
+import net.minecraft.item.ItemStack;
+import net.minecraft.item.Items;
+import net.minecraft.util.registry.Bootstrap;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static com.ldtteam.storageracks.utils.Constants.DEFAULT_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the per slot content accounting of the rack inventory.
+ */
+public class RackInventoryTest
+{
+    /**
+     * The rack under test, without a world or controller.
+     */
+    private TileEntityRack rack;
+
+    /**
+     * The inventory of the rack.
+     */
+    private AbstractTileEntityRack.RackInventory inv;
+
+    @BeforeClass
+    public static void bootstrap()
+    {
+        Bootstrap.bootStrap();
+    }
+
+    /**
+     * Create an empty rack.
+     */
+    private void createRack()
+    {
+        rack = new TileEntityRack();
+        inv = (AbstractTileEntityRack.RackInventory) rack.getInventory();
+    }
+
+    @Test
+    public void insertAccountsContentAndFreeSlots()
+    {
+        createRack();
+        final ItemStack dirt = new ItemStack(Items.DIRT, 10);
+        assertTrue(inv.insertItem(0, dirt, false).isEmpty());
+
+        assertEquals(10, rack.getCount(dirt));
+        assertEquals(DEFAULT_SIZE - 1, inv.getFreeSlots());
+        assertEquals(1, inv.getNextFreeSlot(0));
+        assertEquals((DEFAULT_SIZE - 1) * 64 + 54, inv.getFreeCapacity(dirt));
+    }
+
+    @Test
+    public void extractFreesSlotAndRemovesContent()
+    {
+        createRack();
+        final ItemStack dirt = new ItemStack(Items.DIRT, 10);
+        inv.insertItem(3, dirt, false);
+        assertEquals(10, inv.extractItem(3, 64, false).getCount());
+
+        assertEquals(0, rack.getCount(dirt));
+        assertTrue(rack.getAllContent().isEmpty());
+        assertEquals(DEFAULT_SIZE, inv.getFreeSlots());
+        assertEquals(3, inv.getNextFreeSlot(3));
+    }
+
+    @Test
+    public void replacingTheItemOfASlotMovesTheContent()
+    {
+        createRack();
+        inv.setStackInSlot(0, new ItemStack(Items.DIRT, 10));
+        inv.setStackInSlot(0, new ItemStack(Items.STONE, 5));
+
+        assertEquals(0, rack.getCount(new ItemStack(Items.DIRT)));
+        assertEquals(5, rack.getCount(new ItemStack(Items.STONE)));
+        assertEquals(1, rack.getAllContent().size());
+        assertEquals(DEFAULT_SIZE - 1, inv.getFreeSlots());
+    }
+
+    @Test
+    public void insertFillsPartialSlotsBeforeFreeSlots()
+    {
+        createRack();
+        inv.setStackInSlot(5, new ItemStack(Items.DIRT, 60));
+        assertTrue(inv.insertItemStack(new ItemStack(Items.DIRT, 10), false).isEmpty());
+
+        assertEquals(64, inv.getStackInSlot(5).getCount());
+        assertEquals(6, inv.getStackInSlot(0).getCount());
+        assertEquals(70, rack.getCount(new ItemStack(Items.DIRT)));
+        // Only the first slot is partially filled now.
+        assertFalse(inv.hasMergeablePartials());
+
+        inv.setStackInSlot(7, new ItemStack(Items.DIRT, 3));
+        assertTrue(inv.hasMergeablePartials());
+    }
+
+    @Test
+    public void simulatedInsertKeepsTheAccounting()
+    {
+        createRack();
+        assertTrue(inv.insertItemStack(new ItemStack(Items.DIRT, 100), true).isEmpty());
+
+        assertEquals(0, rack.getCount(new ItemStack(Items.DIRT)));
+        assertEquals(DEFAULT_SIZE, inv.getFreeSlots());
+    }
+
+    @Test
+    public void rollbackRestoresTheAccounting()
+    {
+        createRack();
+        inv.setStackInSlot(0, new ItemStack(Items.DIRT, 10));
+
+        final SlotJournal journal = new SlotJournal(inv);
+        journal.setStackInSlot(0, new ItemStack(Items.STONE, 20));
+        journal.setStackInSlot(1, new ItemStack(Items.DIRT, 64));
+        assertEquals(64, rack.getCount(new ItemStack(Items.DIRT)));
+
+        journal.rollback();
+
+        assertEquals(10, rack.getCount(new ItemStack(Items.DIRT)));
+        assertEquals(0, rack.getCount(new ItemStack(Items.STONE)));
+        assertEquals(DEFAULT_SIZE - 1, inv.getFreeSlots());
+        assertEquals(1, inv.getNextFreeSlot(0));
+    }
+}
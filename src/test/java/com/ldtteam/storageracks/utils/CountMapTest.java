@@ -0,0 +1,156 @@
+package com.ldtteam.storageracks.utils;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the count map.
+ */
+public class CountMapTest
+{
+    /**
+     * Key with a chosen hash code, to force collisions.
+     */
+    private static final class Key
+    {
+        /**
+         * The id, compared by equals.
+         */
+        private final int id;
+
+        /**
+         * The hash code.
+         */
+        private final int hash;
+
+        /**
+         * Create a new key.
+         *
+         * @param id   the id.
+         * @param hash the hash code.
+         */
+        private Key(final int id, final int hash)
+        {
+            this.id = id;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(final Object o)
+        {
+            return o instanceof Key && ((Key) o).id == id;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Key" + id;
+        }
+    }
+
+    @Test
+    public void addToAccumulatesAndRemovesAtZero()
+    {
+        final CountMap<String> map = new CountMap<>();
+        assertEquals(5, map.addTo("a", 5));
+        assertEquals(12, map.addTo("a", 7));
+        assertEquals(12, map.get("a"));
+        assertEquals(1, map.size());
+
+        assertEquals(0, map.addTo("a", -12));
+        assertFalse(map.containsKey("a"));
+        assertEquals(0, map.get("a"));
+        assertTrue(map.isEmpty());
+
+        // A negative delta never adds a missing key.
+        assertEquals(0, map.addTo("b", -3));
+        assertFalse(map.containsKey("b"));
+    }
+
+    @Test
+    public void putAndRemoveReplaceTheCount()
+    {
+        final CountMap<String> map = new CountMap<>();
+        map.put("a", 3);
+        map.put("a", 8);
+        assertEquals(8, map.get("a"));
+        map.put("a", 0);
+        assertFalse(map.containsKey("a"));
+
+        map.addTo("b", 4);
+        assertEquals(4, map.remove("b"));
+        assertEquals(0, map.remove("b"));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void findKeyAndForEachSeeAllEntries()
+    {
+        final CountMap<String> map = new CountMap<>();
+        map.addTo("a", 1);
+        map.addTo("bb", 2);
+        map.addTo("ccc", 3);
+
+        assertEquals("bb", map.findKey(key -> key.length() == 2));
+        assertNull(map.findKey(key -> key.length() == 4));
+
+        final Map<String, Long> seen = new HashMap<>();
+        map.forEach(seen::put);
+        assertEquals(3, seen.size());
+        assertEquals(3L, (long) seen.get("ccc"));
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.findKey(key -> true));
+    }
+
+    @Test
+    public void matchesHashMapOnRandomCollidingKeys()
+    {
+        final Random random = new Random(3);
+        for (int run = 0; run < 50; run++)
+        {
+            final CountMap<Key> map = new CountMap<>();
+            final Map<Key, Long> expected = new HashMap<>();
+            // Few distinct hash codes, so clusters form and removals have to shift entries back.
+            final int hashes = 1 + random.nextInt(8);
+            for (int op = 0; op < 2000; op++)
+            {
+                final int id = random.nextInt(200);
+                final Key key = new Key(id, id % hashes);
+                final long delta = random.nextInt(20) - 8;
+                final long count = expected.getOrDefault(key, 0L) + (expected.containsKey(key) || delta > 0 ? delta : 0);
+                if (count > 0)
+                {
+                    expected.put(key, count);
+                }
+                else
+                {
+                    expected.remove(key);
+                }
+                assertEquals(count > 0 ? count : 0, map.addTo(key, delta));
+            }
+
+            assertEquals(expected.size(), map.size());
+            for (final Map.Entry<Key, Long> entry : expected.entrySet())
+            {
+                assertEquals((long) entry.getValue(), map.get(entry.getKey()));
+            }
+            map.forEach((key, count) -> assertEquals((long) expected.get(key), count));
+        }
+    }
+}
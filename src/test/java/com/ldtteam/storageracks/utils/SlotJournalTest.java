@@ -0,0 +1,75 @@
+package com.ldtteam.storageracks.utils;
+
+import net.minecraft.item.ItemStack;
+import net.minecraft.item.Items;
+import net.minecraft.util.registry.Bootstrap;
+import net.minecraftforge.items.ItemStackHandler;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the slot journal.
+ */
+public class SlotJournalTest
+{
+    @BeforeClass
+    public static void bootstrap()
+    {
+        Bootstrap.bootStrap();
+    }
+
+    @Test
+    public void rollbackRestoresAllWrittenSlots()
+    {
+        final ItemStackHandler inv = new ItemStackHandler(4);
+        final ItemStack dirt = new ItemStack(Items.DIRT, 10);
+        final ItemStack stone = new ItemStack(Items.STONE, 3);
+        inv.setStackInSlot(0, dirt);
+        inv.setStackInSlot(2, stone);
+
+        final SlotJournal journal = new SlotJournal(inv);
+        journal.setStackInSlot(0, stone.copy());
+        journal.setStackInSlot(2, ItemStack.EMPTY);
+        // A slot written twice is restored to the stack it held before the first write.
+        journal.setStackInSlot(0, new ItemStack(Items.COBBLESTONE, 64));
+        journal.setStackInSlot(3, new ItemStack(Items.DIRT, 1));
+
+        journal.rollback();
+
+        assertSame(dirt, inv.getStackInSlot(0));
+        assertTrue(inv.getStackInSlot(1).isEmpty());
+        assertSame(stone, inv.getStackInSlot(2));
+        assertTrue(inv.getStackInSlot(3).isEmpty());
+    }
+
+    @Test
+    public void rollbackAfterClearKeepsTheWrites()
+    {
+        final ItemStackHandler inv = new ItemStackHandler(2);
+        final SlotJournal journal = new SlotJournal(inv);
+        journal.setStackInSlot(1, new ItemStack(Items.DIRT, 5));
+        journal.clear();
+
+        journal.rollback();
+
+        assertEquals(5, inv.getStackInSlot(1).getCount());
+    }
+
+    @Test
+    public void rollbackClearsTheJournal()
+    {
+        final ItemStackHandler inv = new ItemStackHandler(1);
+        final SlotJournal journal = new SlotJournal(inv);
+        journal.setStackInSlot(0, new ItemStack(Items.DIRT, 5));
+        journal.rollback();
+
+        inv.setStackInSlot(0, new ItemStack(Items.STONE, 2));
+        journal.rollback();
+
+        assertEquals(Items.STONE, inv.getStackInSlot(0).getItem());
+    }
+}
@@ -0,0 +1,139 @@
+package com.ldtteam.storageracks.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the sort planner.
+ */
+public class SortPlannerTest
+{
+    /**
+     * The comparator the planner replaced: creative tab, then registry id, then damage value.
+     */
+    private static final Comparator<SortPlanner.Entry> OLD_ORDER = Comparator.comparingInt(SortPlanner.Entry::getTab)
+                                                                     .thenComparingInt(SortPlanner.Entry::getId)
+                                                                     .thenComparingInt(SortPlanner.Entry::getDamage);
+
+    /**
+     * The amount of slots of the racks of the test network.
+     */
+    private static final int[] RACK_SLOTS = {27, 54, 9, 81};
+
+    @Test
+    public void orderMatchesComparatorOnRandomKeys()
+    {
+        final Random random = new Random(1);
+        for (int run = 0; run < 200; run++)
+        {
+            final List<SortPlanner.Entry> entries = randomEntries(random, random.nextInt(500), run);
+            final Integer[] expected = new Integer[entries.size()];
+            for (int i = 0; i < expected.length; i++)
+            {
+                expected[i] = i;
+            }
+            // Arrays.sort on objects is stable, like the radix sort.
+            Arrays.sort(expected, (i1, i2) -> OLD_ORDER.compare(entries.get(i1), entries.get(i2)));
+
+            assertArrayEquals(Arrays.stream(expected).mapToInt(Integer::intValue).toArray(), SortPlanner.order(entries));
+        }
+    }
+
+    @Test
+    public void planKeepsContentAndOrder()
+    {
+        final Random random = new Random(2);
+        final int totalSlots = Arrays.stream(RACK_SLOTS).sum();
+        for (int run = 0; run < 200; run++)
+        {
+            final List<SortPlanner.Entry> entries = new ArrayList<>();
+            int usedSlots = 0;
+            for (final SortPlanner.Entry entry : randomEntries(random, random.nextInt(60), run))
+            {
+                if (usedSlots + entry.getRequiredSlots() <= totalSlots)
+                {
+                    usedSlots += entry.getRequiredSlots();
+                    entries.add(entry);
+                }
+            }
+
+            final SortPlanner.Plan plan = SortPlanner.plan(entries, RACK_SLOTS);
+            assertNotNull(plan);
+            assertEquals(totalSlots, plan.getSlots());
+
+            // Apply the plan to an empty network and count the content again.
+            final long[] applied = new long[entries.size()];
+            final List<Integer> sequence = new ArrayList<>();
+            for (int slot = 0; slot < plan.getSlots(); slot++)
+            {
+                final int entry = plan.getEntry(slot);
+                if (entry < 0)
+                {
+                    assertEquals(0, plan.getCount(slot));
+                    continue;
+                }
+
+                assertTrue(plan.getCount(slot) > 0 && plan.getCount(slot) <= entries.get(entry).getSlotCapacity());
+                applied[entry] += plan.getCount(slot);
+                if (sequence.isEmpty() || sequence.get(sequence.size() - 1) != entry)
+                {
+                    sequence.add(entry);
+                }
+            }
+
+            for (int i = 0; i < entries.size(); i++)
+            {
+                assertEquals(entries.get(i).getCount(), applied[i]);
+            }
+
+            // Every item takes one consecutive run of slots, in sorted order.
+            final int[] order = SortPlanner.order(entries);
+            assertEquals(order.length, sequence.size());
+            for (int i = 0; i < order.length; i++)
+            {
+                assertEquals(order[i], (int) sequence.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void planIsNullIfContentDoesNotFit()
+    {
+        final List<SortPlanner.Entry> entries = new ArrayList<>();
+        entries.add(new SortPlanner.Entry(64L * (Arrays.stream(RACK_SLOTS).sum() + 1), 64, 0, 0, 0));
+        assertNull(SortPlanner.plan(entries, RACK_SLOTS));
+    }
+
+    /**
+     * Create random entries, alternating between wide and narrow key ranges so both sparse and colliding keys are covered.
+     *
+     * @param random the random source.
+     * @param size   the amount of entries.
+     * @param run    the index of the run.
+     * @return the entries.
+     */
+    private static List<SortPlanner.Entry> randomEntries(final Random random, final int size, final int run)
+    {
+        final List<SortPlanner.Entry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+        {
+            entries.add(new SortPlanner.Entry(1 + random.nextInt(1000),
+              random.nextBoolean() ? 64 : 16,
+              random.nextInt(run % 2 == 0 ? 4000 : 5),
+              random.nextInt(run % 3 == 0 ? 16_000_000 : 50),
+              random.nextInt(run % 5 == 0 ? 1000 : 3)));
+        }
+        return entries;
+    }
+}